@@ -0,0 +1,54 @@
+package com.sangilov.plugins.mediasession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Downsampling math that decides how much ArtworkDecoder decodes, over fixed artwork fixtures
+ * (source dimensions typical for cover CDNs, podcast feeds and banner-shaped art).
+ * BitmapFactory itself is Android-only and is not part of this module.
+ */
+@State(Scope.Thread)
+public class ArtworkSizingBenchmark {
+
+    @Param({ "3000x3000", "1400x1400", "1280x720", "640x640", "4000x120", "96x96" })
+    public String fixture;
+
+    @Param({ "256", "512", "1024" })
+    public int targetSize;
+
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        String[] parts = fixture.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+    }
+
+    // Первый проход декодера: inSampleSize по границам изображения
+    @Benchmark
+    public int inSampleSize() {
+        return ArtworkSizing.calculateInSampleSize(width, height, targetSize);
+    }
+
+    // Полный расчёт, как в ArtworkDecoder.decode: семплирование, затем точный размер в бюджете байтов
+    @Benchmark
+    public void decodePlan(Blackhole bh) {
+        int sampleSize = ArtworkSizing.calculateInSampleSize(width, height, targetSize);
+        int[] size = ArtworkSizing.scaledDimensions(
+                width / sampleSize, height / sampleSize, targetSize, 4, ArtworkSizing.MAX_BITMAP_BYTES);
+        bh.consume(size);
+    }
+
+    // Миниатюра для снимка сессии и уведомления
+    @Benchmark
+    public int[] thumbnail() {
+        return ArtworkSizing.scaledDimensions(width, height, 96, 4, ArtworkSizing.MAX_BITMAP_BYTES);
+    }
+}
@@ -0,0 +1,106 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Direct-channel command dispatch: CommandQueue collapsing plus the action switch of handleCommand.
+ * Bundles are Android-only, so payloads are plain maps of the same shape.
+ */
+@State(Scope.Thread)
+public class CommandDispatchBenchmark {
+
+    // Те же строки, что и в MediaSessionService: switch по String сравнивает hashCode и equals
+    private static final String ACTION_PLAY = "ACTION_PLAY";
+    private static final String ACTION_PAUSE = "ACTION_PAUSE";
+    private static final String ACTION_SEEK_TO = "ACTION_SEEK_TO";
+    private static final String ACTION_UPDATE_METADATA = "ACTION_UPDATE_METADATA";
+    private static final String ACTION_UPDATE_PLAYBACK_STATE = "ACTION_UPDATE_PLAYBACK_STATE";
+
+    // Сколько команд приходит между двумя выборками потока сессии
+    @Param({ "1", "16", "256" })
+    public int burst;
+
+    private CommandQueue<Map<String, Object>> queue;
+    private Map<String, Object> seek;
+    private Map<String, Object> metadata;
+    private Map<String, Object> state;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        queue = new CommandQueue<>(ACTION_SEEK_TO, ACTION_UPDATE_METADATA, ACTION_UPDATE_PLAYBACK_STATE);
+        seek = new HashMap<>();
+        seek.put("position", 42000L);
+        metadata = new HashMap<>();
+        metadata.put("title", "Title");
+        metadata.put("artist", "Artist");
+        metadata.put("cover", "https://example.com/covers/album.jpg");
+        state = new HashMap<>();
+        state.put("state", "playing");
+        state.put("position", 42000L);
+    }
+
+    // Перемотка ползунком: все seekTo схлопываются в одну команду
+    @Benchmark
+    public void seekStorm(Blackhole bh) {
+        for (int i = 0; i < burst; i++) {
+            queue.offer(ACTION_SEEK_TO, seek, ++now);
+        }
+        drain(bh);
+    }
+
+    // Смешанный поток: метаданные, состояние, перемотка и play/pause (последние не схлопываются)
+    @Benchmark
+    public void mixed(Blackhole bh) {
+        for (int i = 0; i < burst; i++) {
+            switch (i & 3) {
+                case 0:
+                    queue.offer(ACTION_UPDATE_METADATA, metadata, ++now);
+                    break;
+                case 1:
+                    queue.offer(ACTION_UPDATE_PLAYBACK_STATE, state, ++now);
+                    break;
+                case 2:
+                    queue.offer(ACTION_SEEK_TO, seek, ++now);
+                    break;
+                default:
+                    queue.offer((i & 4) == 0 ? ACTION_PLAY : ACTION_PAUSE, null, ++now);
+                    break;
+            }
+        }
+        drain(bh);
+    }
+
+    private void drain(Blackhole bh) {
+        CommandQueue.Command<Map<String, Object>> command;
+        while ((command = queue.poll()) != null) {
+            bh.consume(route(command.action));
+            bh.consume(command.payload);
+        }
+    }
+
+    private static int route(String action) {
+        switch (action) {
+            case ACTION_PLAY:
+                return 1;
+            case ACTION_PAUSE:
+                return 2;
+            case ACTION_SEEK_TO:
+                return 3;
+            case ACTION_UPDATE_METADATA:
+                return 4;
+            case ACTION_UPDATE_PLAYBACK_STATE:
+                return 5;
+            default:
+                return 0;
+        }
+    }
+}
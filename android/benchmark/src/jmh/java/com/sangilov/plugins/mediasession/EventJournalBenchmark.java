@@ -0,0 +1,50 @@
+package com.sangilov.plugins.mediasession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The sendEvent path up to the bridge: journal append (with merging) and drain.
+ * Building the JSObject payload happens on the main thread and needs Capacitor, so it is not measured here.
+ */
+@State(Scope.Thread)
+public class EventJournalBenchmark {
+
+    private static final int CAPACITY = 256;
+
+    private EventJournal<Object> journal;
+    private long position;
+
+    @Setup
+    public void setUp() {
+        journal = new EventJournal<>(CAPACITY, "seekTo", "progress");
+    }
+
+    // sendEvent(String, long): play/pause/next с позицией, доставка сразу
+    @Benchmark
+    public int appendAndDrain(Blackhole bh) {
+        journal.append("play", ++position, true, null);
+        return journal.drain((seq, event, pos, hasPosition, data) -> bh.consume(seq));
+    }
+
+    // Перемотка, пока мост занят: 32 seekTo склеиваются в одно событие
+    @Benchmark
+    public int seekStormMerged(Blackhole bh) {
+        for (int i = 0; i < 32; i++) {
+            journal.append("seekTo", ++position, true, null);
+        }
+        return journal.drain((seq, event, pos, hasPosition, data) -> bh.consume(seq));
+    }
+
+    // Мост не готов дольше, чем хватает журнала: самые старые события затираются
+    @Benchmark
+    public int overflow(Blackhole bh) {
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            journal.append((i & 1) == 0 ? "play" : "pause", ++position, true, null);
+        }
+        return journal.drain((seq, event, pos, hasPosition, data) -> bh.consume(seq));
+    }
+}
@@ -0,0 +1,46 @@
+package com.sangilov.plugins.mediasession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of the always-on counters and of an enabled trace point; both sit on every command.
+ */
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private LatencyStats stats;
+    private TraceBuffer trace;
+
+    @Setup
+    public void setUp() {
+        stats = new LatencyStats();
+        trace = new TraceBuffer(TraceBuffer.DEFAULT_CAPACITY);
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        stats.record(System.nanoTime() & 0xFFFFFL);
+    }
+
+    // Поток сессии, пул обложек и мост пишут одновременно
+    @Benchmark
+    @Threads(4)
+    public void recordLatencyContended() {
+        stats.record(System.nanoTime() & 0xFFFFFL);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return stats.getPercentileMicros(0.95);
+    }
+
+    @Benchmark
+    public void recordTraceSpan() {
+        long now = System.nanoTime();
+        trace.record("command.handle", "ACTION_PLAY", false, now, 1000L, 1, "MediaSessionControl");
+    }
+}
@@ -0,0 +1,81 @@
+package com.sangilov.plugins.mediasession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * State transitions and update diffing done by MediaSessionService for every command.
+ */
+@State(Scope.Thread)
+public class SessionStateBenchmark {
+
+    private static final String[] TITLES = { "Track A", "Track B", "Track C", "Track D" };
+    private static final String COVER = "https://example.com/covers/album.jpg";
+
+    private SessionState state;
+    private StateDiffer unchanged;
+    private StateDiffer changing;
+    private long now;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        state = SessionState.EMPTY
+                .withMetadata(TITLES[0], "Artist", "Album", COVER, 240000L)
+                .withPlaying(true, 0L);
+        unchanged = new StateDiffer();
+        unchanged.metadataChanged(TITLES[0], "Artist", "Album", COVER, 240000L, 512, false);
+        unchanged.stateChanged(true, 0L, 1.0f, 0L);
+        unchanged.notificationChanged(TITLES[0], "Artist", true, "");
+        changing = new StateDiffer();
+    }
+
+    // updatePlaybackState: пауза и продолжение с фиксацией набежавшей позиции
+    @Benchmark
+    public SessionState togglePlaying() {
+        now += 250L;
+        return state.withPlaying(false, now).withPlaying(true, now);
+    }
+
+    // applyState: метаданные, состояние, скорость и позиция одним переходом
+    @Benchmark
+    public SessionState applyState() {
+        now += 250L;
+        String title = TITLES[i++ & 3];
+        return state
+                .withMetadata(title, "Artist", "Album", COVER, 240000L)
+                .withStateName("playing", now)
+                .withPlaybackSpeed(1.0f, now)
+                .withPosition(now, now);
+    }
+
+    // Тик progress: позиция по часам без перехода
+    @Benchmark
+    public long positionAt() {
+        now += 250L;
+        return state.positionAt(now);
+    }
+
+    // Повтор уже опубликованного: все три проверки должны отсечь обновление
+    @Benchmark
+    public boolean diffUnchanged() {
+        now += 250L;
+        boolean changed = unchanged.metadataChanged(TITLES[0], "Artist", "Album", COVER, 240000L, 512, false);
+        changed |= unchanged.stateChanged(true, now, 1.0f, now);
+        changed |= unchanged.notificationChanged(TITLES[0], "Artist", true, "");
+        return changed;
+    }
+
+    // Смена трека: каждая проверка пропускает обновление дальше
+    @Benchmark
+    public boolean diffChanged() {
+        now += 250L;
+        String title = TITLES[i++ & 3];
+        boolean changed = changing.metadataChanged(title, "Artist", "Album", COVER, 240000L, 512, false);
+        changed &= changing.stateChanged((i & 1) == 0, 0L, 1.0f, now);
+        changed &= changing.notificationChanged(title, "Artist", (i & 1) == 0, "");
+        return changed;
+    }
+}
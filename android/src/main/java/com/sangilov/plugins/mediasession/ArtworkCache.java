@@ -0,0 +1,359 @@
+package com.sangilov.plugins.mediasession;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Двухуровневый кэш обложек: LRU в памяти (по байтам) + файлы в cacheDir с ревалидацией ETag/Last-Modified
+class ArtworkCache {
+
+    private static final String DIR_NAME = "media_session_artwork";
+    private static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final int MAX_MEMORY_BYTES = 32 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 20 * 1024 * 1024L;
+    private static final int THUMBNAIL_SIZE = 96;
+    private static final int MAX_THUMBNAILS = 32;
+    private static final long MAX_POOL_BYTES = 8 * 1024 * 1024L;
+
+    // Ступени реакции на нехватку памяти, по возрастанию
+    static final int TRIM_NONE = 0;
+    // Кэш обложек — до половины, пул буферов — пуст
+    static final int TRIM_SHRINK = 1;
+    // Полноразмерные обложки вытесняются целиком, остаются миниатюры
+    static final int TRIM_THUMBNAILS = 2;
+    // Остаётся только миниатюра текущей обложки
+    static final int TRIM_MINIMAL = 3;
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_EXPIRES = "expires";
+
+    private final LruCache<String, Bitmap> memory;
+    private final LruCache<String, Bitmap> thumbnails = new LruCache<>(MAX_THUMBNAILS);
+    private final BitmapPool pool;
+    private final Context context;
+    private final File dir;
+    private final ArtworkFetcher fetcher;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong localLoads = new AtomicLong();
+    private final LatencyStats fetchLatency = new LatencyStats();
+    private final LatencyStats decodeLatency = new LatencyStats();
+
+    ArtworkCache(Context context, ArtworkFetcher fetcher) {
+        this.context = context.getApplicationContext();
+        this.fetcher = fetcher;
+        int memoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_MEMORY_BYTES);
+        memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        pool = new BitmapPool(Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_POOL_BYTES));
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+    }
+
+    Bitmap getFromMemory(String url, int targetSize, boolean rgb565) {
+        if (url == null || url.isEmpty()) return null;
+        Bitmap bitmap = memory.get(memoryKey(url, targetSize, rgb565));
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    // Проверка без учёта в статистике попаданий — для прогрева очереди
+    boolean isInMemory(String url, int targetSize, boolean rgb565) {
+        if (url == null || url.isEmpty()) return false;
+        return memory.get(memoryKey(url, targetSize, rgb565)) != null;
+    }
+
+    // Миниатюра из сохранённого снимка сессии — показывается, пока полная обложка грузится
+    void restoreThumbnail(String url, Bitmap thumbnail) {
+        if (url == null || url.isEmpty() || thumbnail == null) return;
+        thumbnails.put(baseKey(url), thumbnail);
+    }
+
+    // Маленькая копия обложки, переживает вытеснение полноразмерной из LRU
+    Bitmap getThumbnail(String url) {
+        if (url == null || url.isEmpty()) return null;
+        return thumbnails.get(baseKey(url));
+    }
+
+    // Блокирующая загрузка: память → диск (если свежий) → условный запрос в сеть.
+    // Локальные источники декодируются напрямую, минуя дисковый кэш и HTTP
+    Bitmap load(String url, int targetSize, boolean rgb565) {
+        if (url == null || url.isEmpty()) return null;
+
+        Bitmap bitmap = getFromMemory(url, targetSize, rgb565);
+        if (bitmap != null) return bitmap;
+
+        String memoryKey = memoryKey(url, targetSize, rgb565);
+
+        if (LocalArtworkSource.isLocal(url)) {
+            long traced = Tracer.begin("artwork.decode");
+            long started = System.nanoTime();
+            bitmap = LocalArtworkSource.decode(context, url, targetSize, rgb565, pool);
+            decodeLatency.record(System.nanoTime() - started);
+            Tracer.end("artwork.decode", null, traced);
+            if (bitmap == null) {
+                failures.incrementAndGet();
+                return null;
+            }
+            localLoads.incrementAndGet();
+            memory.put(memoryKey, bitmap);
+            putThumbnail(url, bitmap);
+            return bitmap;
+        }
+
+        String key = keyFor(url);
+        File data = new File(dir, key + ".img");
+        File metaFile = new File(dir, key + ".meta");
+        Properties meta = data.exists() ? readMeta(metaFile) : null;
+
+        if (meta != null && System.currentTimeMillis() < parseLong(meta.getProperty(META_EXPIRES))) {
+            bitmap = decode(data, targetSize, rgb565);
+            if (bitmap != null) {
+                diskHits.incrementAndGet();
+                memory.put(memoryKey, bitmap);
+                putThumbnail(url, bitmap);
+                return bitmap;
+            }
+        }
+
+        String etag = meta != null ? meta.getProperty(META_ETAG) : null;
+        String lastModified = meta != null ? meta.getProperty(META_LAST_MODIFIED) : null;
+        // Одна обложка может параллельно грузиться в разных размерах — у каждого потока свой tmp
+        File tmp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+        long traced = Tracer.begin("artwork.fetch");
+        long fetchStarted = System.nanoTime();
+        ArtworkFetcher.Result result = fetcher.fetch(url, etag, lastModified, tmp);
+        fetchLatency.record(System.nanoTime() - fetchStarted);
+        Tracer.end("artwork.fetch", null, traced);
+
+        if (result.isNotModified() && meta != null) {
+            revalidations.incrementAndGet();
+            meta.setProperty(META_EXPIRES, String.valueOf(expiresAt(result.cacheControl)));
+            writeMeta(metaFile, meta);
+            bitmap = decode(data, targetSize, rgb565);
+        } else if (result.isOk()) {
+            misses.incrementAndGet();
+            if (!tmp.renameTo(data)) {
+                tmp.delete();
+                return null;
+            }
+            Properties fresh = new Properties();
+            if (result.etag != null) fresh.setProperty(META_ETAG, result.etag);
+            if (result.lastModified != null) fresh.setProperty(META_LAST_MODIFIED, result.lastModified);
+            fresh.setProperty(META_EXPIRES, String.valueOf(expiresAt(result.cacheControl)));
+            writeMeta(metaFile, fresh);
+            trimDisk();
+            bitmap = decode(data, targetSize, rgb565);
+        } else {
+            failures.incrementAndGet();
+            tmp.delete();
+            // Сеть недоступна — лучше показать устаревшую обложку, чем никакую
+            if (meta != null && result.failure != ArtworkFetcher.Failure.CANCELLED) {
+                bitmap = decode(data, targetSize, rgb565);
+            }
+        }
+
+        if (bitmap != null) {
+            memory.put(memoryKey, bitmap);
+            putThumbnail(url, bitmap);
+        }
+        return bitmap;
+    }
+
+    long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    long getDiskHits() {
+        return diskHits.get();
+    }
+
+    long getRevalidations() {
+        return revalidations.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getFailures() {
+        return failures.get();
+    }
+
+    long getLocalLoads() {
+        return localLoads.get();
+    }
+
+    int getMemorySize() {
+        return memory.size();
+    }
+
+    int getMemoryMaxSize() {
+        return memory.maxSize();
+    }
+
+    // Считается по запросу диагностики: миниатюр немного, а LruCache не ведёт их размер в байтах
+    long getThumbnailBytes() {
+        long total = 0L;
+        for (Bitmap thumbnail : thumbnails.snapshot().values()) {
+            total += thumbnail.getAllocationByteCount();
+        }
+        return total;
+    }
+
+    BitmapPool getPool() {
+        return pool;
+    }
+
+    // Вытесненные обложки не освобождаются через recycle: на них может ссылаться опубликованная
+    // MediaMetadataCompat — память вернёт GC, когда ссылок не останется
+    void trim(int tier, String currentUrl) {
+        if (tier <= TRIM_NONE) return;
+        pool.clear();
+        if (tier >= TRIM_THUMBNAILS) {
+            memory.evictAll();
+        } else {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+        if (tier >= TRIM_MINIMAL) {
+            // Текущая миниатюра становится самой свежей и переживает обрезку до одной записи
+            getThumbnail(currentUrl);
+            thumbnails.trimToSize(1);
+        }
+    }
+
+    LatencyStats getFetchLatency() {
+        return fetchLatency;
+    }
+
+    LatencyStats getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    private Bitmap decode(File data, int targetSize, boolean rgb565) {
+        long traced = Tracer.begin("artwork.decode");
+        long started = System.nanoTime();
+        Bitmap bitmap = ArtworkDecoder.decodeFile(data, targetSize, rgb565, pool);
+        decodeLatency.record(System.nanoTime() - started);
+        Tracer.end("artwork.decode", null, traced);
+        return bitmap;
+    }
+
+    private void putThumbnail(String url, Bitmap source) {
+        String key = baseKey(url);
+        if (thumbnails.get(key) != null) return;
+        int[] size = ArtworkSizing.scaledDimensions(
+                source.getWidth(), source.getHeight(), THUMBNAIL_SIZE, 4, ArtworkSizing.MAX_BITMAP_BYTES);
+        thumbnails.put(key, Bitmap.createScaledBitmap(source, size[0], size[1], true));
+    }
+
+    // Один URL может понадобиться в разных размерах/форматах — ключ памяти их различает
+    private static String memoryKey(String url, int targetSize, boolean rgb565) {
+        return baseKey(url) + '#' + targetSize + (rgb565 ? "_565" : "");
+    }
+
+    // data: URI хэшируется, чтобы не держать мегабайтные строки ключами LRU
+    private static String baseKey(String url) {
+        return url.startsWith("data:") ? "data:" + keyFor(url) : url;
+    }
+
+    private static long expiresAt(String cacheControl) {
+        long maxAge = DEFAULT_MAX_AGE_MS;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                String d = directive.trim();
+                if (d.startsWith("max-age=")) {
+                    maxAge = parseLong(d.substring("max-age=".length())) * 1000L;
+                } else if (d.equals("no-cache") || d.equals("no-store")) {
+                    maxAge = 0L;
+                }
+            }
+        }
+        return System.currentTimeMillis() + maxAge;
+    }
+
+    private void trimDisk() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".img"));
+        if (files == null) return;
+        long total = 0L;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= MAX_DISK_BYTES) return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_DISK_BYTES) break;
+            total -= f.length();
+            String name = f.getName();
+            new File(dir, name.substring(0, name.length() - 4) + ".meta").delete();
+            f.delete();
+        }
+    }
+
+    private static Properties readMeta(File file) {
+        if (!file.exists()) return null;
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            meta.load(in);
+            return meta;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(File file, Properties meta) {
+        try (OutputStream out = new FileOutputStream(file)) {
+            meta.store(out, null);
+        } catch (IOException e) {
+            file.delete();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0L;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.sangilov.plugins.mediasession;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+// Декодирование с учётом размера: сначала только границы, затем inSampleSize и точное масштабирование
+final class ArtworkDecoder {
+
+    // Источник открывается заново на каждый проход (границы, затем сами пиксели)
+    interface Source {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    private ArtworkDecoder() {}
+
+    static Bitmap decodeFile(File file, int targetSize, boolean rgb565, BitmapPool pool) {
+        String path = file.getAbsolutePath();
+        return decode(options -> BitmapFactory.decodeFile(path, options), targetSize, rgb565, pool);
+    }
+
+    // pool — буферы для промежуточного семплированного изображения; null — без переиспользования
+    static Bitmap decode(Source source, int targetSize, boolean rgb565, BitmapPool pool) {
+        try {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            source.decode(bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            int sampleSize = ArtworkSizing.calculateInSampleSize(bounds.outWidth, bounds.outHeight, targetSize);
+            Bitmap.Config config = rgb565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+
+            // Размер после семплирования округляем вверх: декодер JPEG может дать на пиксель больше
+            int sampledWidth = (bounds.outWidth + sampleSize - 1) / sampleSize;
+            int sampledHeight = (bounds.outHeight + sampleSize - 1) / sampleSize;
+            Bitmap reusable = null;
+            // Буфер пула берём только под промежуточное изображение, которое потом уменьшается:
+            // наименьший подходящий буфер может быть заметно больше картинки
+            if (pool != null && isScaledAfterSampling(sampledWidth, sampledHeight, targetSize, rgb565)) {
+                reusable = pool.get(sampledWidth, sampledHeight, config);
+                options.inBitmap = reusable;
+                options.inMutable = true;
+            }
+            Bitmap sampled;
+            try {
+                sampled = source.decode(options);
+            } catch (IllegalArgumentException e) {
+                // Формат не умеет декодировать в существующий буфер — повторяем с новым
+                if (reusable == null) throw e;
+                pool.put(reusable);
+                reusable = null;
+                options.inBitmap = null;
+                sampled = source.decode(options);
+            }
+            if (sampled == null) {
+                if (reusable != null) pool.put(reusable);
+                return null;
+            }
+
+            Bitmap result = scale(sampled, targetSize, rgb565, pool);
+            if (result == reusable && result.getAllocationByteCount() > result.getByteCount()) {
+                // Масштабирование не понадобилось (округление размеров) — буфер пула не публикуем:
+                // его лишняя память обошла бы MAX_BITMAP_BYTES и раздула бы LruCache
+                Bitmap exact = result.copy(config, false);
+                if (exact == null) return result;
+                pool.put(result);
+                return exact;
+            }
+            return result;
+        } catch (IOException | SecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isScaledAfterSampling(int width, int height, int targetSize, boolean rgb565) {
+        int[] size = ArtworkSizing.scaledDimensions(
+                width, height, targetSize, rgb565 ? 2 : 4, ArtworkSizing.MAX_BITMAP_BYTES);
+        return size[0] != width || size[1] != height;
+    }
+
+    // source принадлежит вызывающему; если создано уменьшенное изображение, source уходит в пул
+    // (или освобождается без пула)
+    static Bitmap scale(Bitmap source, int targetSize, boolean rgb565, BitmapPool pool) {
+        int bytesPerPixel = rgb565 ? 2 : 4;
+        int[] size = ArtworkSizing.scaledDimensions(
+                source.getWidth(), source.getHeight(), targetSize, bytesPerPixel, ArtworkSizing.MAX_BITMAP_BYTES);
+        if (size[0] == source.getWidth() && size[1] == source.getHeight()) return source;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(source, size[0], size[1], true);
+        if (scaled != source) {
+            if (pool != null) {
+                pool.put(source);
+            } else {
+                source.recycle();
+            }
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,264 @@
+package com.sangilov.plugins.mediasession;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HTTP-загрузка обложек: keep-alive (поток дочитывается и закрывается), ограничение размера ответа,
+// лимит параллельных запросов на хост, явные причины ошибок и негативный кэш для постоянно падающих URL.
+// Без зависимостей от Android — проверяется в unit-тестах против локального HTTP-сервера.
+final class ArtworkFetcher {
+
+    enum Failure {
+        NONE,
+        INVALID_URL,
+        HTTP_ERROR,
+        TOO_LARGE,
+        TIMEOUT,
+        IO_ERROR,
+        HOST_BUSY,
+        NEGATIVE_CACHED,
+        CANCELLED
+    }
+
+    static final class Result {
+        final int code;
+        final Failure failure;
+        final long bytes;
+        final String etag;
+        final String lastModified;
+        final String cacheControl;
+
+        Result(int code, Failure failure, long bytes, String etag, String lastModified, String cacheControl) {
+            this.code = code;
+            this.failure = failure;
+            this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.cacheControl = cacheControl;
+        }
+
+        boolean isOk() {
+            return failure == Failure.NONE && code == HttpURLConnection.HTTP_OK;
+        }
+
+        boolean isNotModified() {
+            return failure == Failure.NONE && code == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        static Result failed(Failure failure, int code) {
+            return new Result(code, failure, 0L, null, null, null);
+        }
+    }
+
+    static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024L;
+    static final int DEFAULT_PER_HOST_LIMIT = 2;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+    private static final long HOST_WAIT_MS = 2000L;
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long NEGATIVE_BASE_MS = 30 * 1000L;
+    private static final long NEGATIVE_MAX_MS = 10 * 60 * 1000L;
+    private static final int MAX_NEGATIVE_ENTRIES = 64;
+    // Тело ошибки дочитываем ради keep-alive только в этих пределах, дальше соединение рвём
+    private static final int MAX_ERROR_BODY_BYTES = 8 * 1024;
+
+    private final long maxBytes;
+    private final int perHostLimit;
+    private final long negativeBaseMs;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final AtomicLongArray failures = new AtomicLongArray(Failure.values().length);
+
+    // URL → серия неудач; доступ под lock (negative)
+    private final LinkedHashMap<String, long[]> negative = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_NEGATIVE_ENTRIES;
+        }
+    };
+
+    ArtworkFetcher() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_PER_HOST_LIMIT, NEGATIVE_BASE_MS);
+    }
+
+    ArtworkFetcher(long maxBytes, int perHostLimit, long negativeBaseMs) {
+        this.maxBytes = maxBytes;
+        this.perHostLimit = perHostLimit;
+        this.negativeBaseMs = negativeBaseMs;
+    }
+
+    // Тело ответа 200 пишется в target; для 304 файл не трогается
+    Result fetch(String src, String etag, String lastModified, File target) {
+        URL url;
+        try {
+            url = new URL(src);
+        } catch (MalformedURLException e) {
+            return fail(src, Failure.INVALID_URL, 0);
+        }
+        if (isNegativeCached(src)) {
+            failures.incrementAndGet(Failure.NEGATIVE_CACHED.ordinal());
+            return Result.failed(Failure.NEGATIVE_CACHED, 0);
+        }
+
+        Semaphore permits = permitsFor(url.getHost());
+        try {
+            if (!permits.tryAcquire(HOST_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                failures.incrementAndGet(Failure.HOST_BUSY.ordinal());
+                return Result.failed(Failure.HOST_BUSY, 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.incrementAndGet(Failure.CANCELLED.ordinal());
+            return Result.failed(Failure.CANCELLED, 0);
+        }
+
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setDoInput(true);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null) connection.setRequestProperty("If-Modified-Since", lastModified);
+
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                reusable = true;
+                clearNegative(src);
+                return new Result(code, Failure.NONE, 0L, etag, lastModified,
+                        connection.getHeaderField("Cache-Control"));
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                reusable = drainError(connection);
+                return fail(src, Failure.HTTP_ERROR, code);
+            }
+            long declared = connection.getContentLength();
+            if (declared > maxBytes) {
+                return fail(src, Failure.TOO_LARGE, code);
+            }
+
+            long total = 0L;
+            try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(target)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        target.delete();
+                        return fail(src, Failure.CANCELLED, code);
+                    }
+                    total += read;
+                    if (total > maxBytes) {
+                        target.delete();
+                        return fail(src, Failure.TOO_LARGE, code);
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            reusable = true;
+            clearNegative(src);
+            return new Result(code, Failure.NONE, total,
+                    connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"),
+                    connection.getHeaderField("Cache-Control"));
+        } catch (SocketTimeoutException e) {
+            return fail(src, Failure.TIMEOUT, 0);
+        } catch (InterruptedIOException e) {
+            return fail(src, Failure.CANCELLED, 0);
+        } catch (IOException e) {
+            return fail(src, Failure.IO_ERROR, 0);
+        } finally {
+            // Закрытый дочитанный поток возвращает сокет в пул keep-alive; disconnect — только при сбое
+            if (connection != null && !reusable) {
+                connection.disconnect();
+            }
+            permits.release();
+        }
+    }
+
+    long getFailures(Failure failure) {
+        return failures.get(failure.ordinal());
+    }
+
+    boolean isNegativeCached(String src) {
+        synchronized (negative) {
+            long[] entry = negative.get(src);
+            return entry != null && entry[0] >= FAILURE_THRESHOLD && System.nanoTime() < entry[1];
+        }
+    }
+
+    private Semaphore permitsFor(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(perHostLimit);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    private Result fail(String src, Failure failure, int code) {
+        failures.incrementAndGet(failure.ordinal());
+        // Отмена — не вина URL, в негативный кэш её не записываем
+        if (failure != Failure.CANCELLED) {
+            synchronized (negative) {
+                long[] entry = negative.get(src);
+                if (entry == null) {
+                    entry = new long[2];
+                    negative.put(src, entry);
+                }
+                entry[0]++;
+                if (entry[0] >= FAILURE_THRESHOLD) {
+                    long shift = Math.min(entry[0] - FAILURE_THRESHOLD, 10);
+                    long backoff = Math.min(negativeBaseMs << shift, NEGATIVE_MAX_MS);
+                    entry[1] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                }
+            }
+        }
+        return Result.failed(failure, code);
+    }
+
+    private void clearNegative(String src) {
+        synchronized (negative) {
+            negative.remove(src);
+        }
+    }
+
+    // true — тело дочитано целиком и соединение можно вернуть в пул keep-alive
+    private static boolean drainError(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getErrorStream();
+        if (in == null) return true;
+        try {
+            byte[] buffer = new byte[1024];
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > MAX_ERROR_BODY_BYTES) {
+                    // Сначала рвём соединение, чтобы close() не пытался дочитать остаток
+                    connection.disconnect();
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.sangilov.plugins.mediasession;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Загрузчик обложек с токенами поколений: публикуется только результат последнего запроса,
+// устаревшие загрузки отменяются, одинаковые URL склеиваются в одну загрузку
+class ArtworkLoader {
+
+    interface Callback {
+        void onArtwork(long token, Bitmap bitmap);
+    }
+
+    private static final int THREADS = 3;
+    private static final int MAX_QUEUED = 8;
+
+    private final ArtworkCache cache;
+    private final ExecutorService executor;
+    private final AtomicLong generation = new AtomicLong();
+    private final Map<String, Fetch> inFlight = new HashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    // Запрос текущего поколения; доступ под lock (this)
+    private Request current;
+
+    ArtworkLoader(ArtworkCache cache) {
+        this.cache = cache;
+        // Ограниченный пул: устаревшие загрузки отменяются, поэтому очередь переполняется только при сбоях
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED));
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    long load(String url, int targetSize, boolean rgb565, Callback callback) {
+        long token = generation.incrementAndGet();
+        String key = keyFor(url, targetSize, rgb565);
+        Request request = new Request(token, callback);
+
+        synchronized (this) {
+            detachCurrent();
+            Fetch fetch = inFlight.get(key);
+            if (fetch != null) {
+                deduplicated.incrementAndGet();
+            } else {
+                fetch = new Fetch(key, url, targetSize, rgb565);
+                try {
+                    fetch.future = executor.submit(fetch);
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                    current = null;
+                    callback.onArtwork(token, null);
+                    return token;
+                }
+                inFlight.put(key, fetch);
+                started.incrementAndGet();
+            }
+            request.fetch = fetch;
+            fetch.requests.add(request);
+            current = request;
+        }
+        return token;
+    }
+
+    // Фоновый прогрев кэша без колбэка и без смены поколения: текущий запрос не отменяется.
+    // Прогрев занимает не больше половины очереди пула, чтобы не вытеснять настоящие загрузки
+    boolean prefetch(String url, int targetSize, boolean rgb565) {
+        if (url == null || url.isEmpty() || cache.isInMemory(url, targetSize, rgb565)) return false;
+        String key = keyFor(url, targetSize, rgb565);
+        synchronized (this) {
+            if (inFlight.containsKey(key)) return false;
+            if (((ThreadPoolExecutor) executor).getQueue().size() >= MAX_QUEUED / 2) return false;
+            Fetch fetch = new Fetch(key, url, targetSize, rgb565);
+            try {
+                fetch.future = executor.submit(fetch);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            inFlight.put(key, fetch);
+            prefetched.incrementAndGet();
+        }
+        return true;
+    }
+
+    // Новое поколение без загрузки: всё, что ещё в пути, уже никогда не будет опубликовано
+    void cancel() {
+        generation.incrementAndGet();
+        synchronized (this) {
+            detachCurrent();
+            current = null;
+        }
+    }
+
+    boolean isCurrent(long token) {
+        return generation.get() == token;
+    }
+
+    void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    long getStarted() {
+        return started.get();
+    }
+
+    long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    long getCancelled() {
+        return cancelled.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    long getPrefetched() {
+        return prefetched.get();
+    }
+
+    // Фактическая нагрузка пула: задачи в очереди и выполняющиеся, включая отменённые, но ещё не вышедшие
+    int getInFlight() {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        return pool.getQueue().size() + pool.getActiveCount();
+    }
+
+    private static String keyFor(String url, int targetSize, boolean rgb565) {
+        return url + '#' + targetSize + (rgb565 ? "_565" : "");
+    }
+
+    private void detachCurrent() {
+        if (current == null || current.fetch == null) return;
+        Fetch fetch = current.fetch;
+        fetch.requests.remove(current);
+        if (fetch.requests.isEmpty() && inFlight.get(fetch.key) == fetch) {
+            inFlight.remove(fetch.key);
+            if (fetch.future != null && fetch.future.cancel(true)) {
+                cancelled.incrementAndGet();
+                // Отменённая, но не начатая задача иначе занимает место в очереди пула до выборки,
+                // и при частой смене обложек новые загрузки отклоняются
+                ((ThreadPoolExecutor) executor).remove((Runnable) fetch.future);
+            }
+        }
+    }
+
+    private static final class Request {
+        final long token;
+        final Callback callback;
+        Fetch fetch;
+
+        Request(long token, Callback callback) {
+            this.token = token;
+            this.callback = callback;
+        }
+    }
+
+    private final class Fetch implements Runnable {
+        final String key;
+        final String url;
+        final int targetSize;
+        final boolean rgb565;
+        final List<Request> requests = new ArrayList<>();
+        final long queuedAt = Tracer.mark();
+        volatile Future<?> future;
+
+        Fetch(String key, String url, int targetSize, boolean rgb565) {
+            this.key = key;
+            this.url = url;
+            this.targetSize = targetSize;
+            this.rgb565 = rgb565;
+        }
+
+        @Override
+        public void run() {
+            Tracer.span("artwork.queue", null, queuedAt);
+            long traced = Tracer.begin("artwork.load");
+            Bitmap bitmap;
+            try {
+                bitmap = cache.load(url, targetSize, rgb565);
+            } finally {
+                Tracer.end("artwork.load", null, traced);
+            }
+
+            List<Request> waiting;
+            synchronized (ArtworkLoader.this) {
+                if (inFlight.get(key) == this) {
+                    inFlight.remove(key);
+                }
+                waiting = new ArrayList<>(requests);
+                requests.clear();
+            }
+            for (Request request : waiting) {
+                if (isCurrent(request.token)) {
+                    request.callback.onArtwork(request.token, bitmap);
+                } else {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+}
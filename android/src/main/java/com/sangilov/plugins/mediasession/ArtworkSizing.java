@@ -0,0 +1,41 @@
+package com.sangilov.plugins.mediasession;
+
+// Чистая математика уменьшения обложек, без зависимостей от Android
+final class ArtworkSizing {
+
+    static final int DEFAULT_TARGET_SIZE = 512;
+    static final int MIN_TARGET_SIZE = 64;
+    static final int MAX_TARGET_SIZE = 2048;
+    static final int MAX_BITMAP_BYTES = 2 * 1024 * 1024;
+
+    private ArtworkSizing() {}
+
+    static int clampTargetSize(int size) {
+        if (size <= 0) return DEFAULT_TARGET_SIZE;
+        return Math.max(MIN_TARGET_SIZE, Math.min(MAX_TARGET_SIZE, size));
+    }
+
+    // Наибольшая степень двойки, при которой обе стороны остаются не меньше targetSize
+    static int calculateInSampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0) return sampleSize;
+        int shortest = Math.min(width, height);
+        while (shortest / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Итоговые размеры: длинная сторона не больше targetSize и не больше бюджета по байтам
+    static int[] scaledDimensions(int width, int height, int targetSize, int bytesPerPixel, int maxBytes) {
+        if (width <= 0 || height <= 0) return new int[] { width, height };
+        double scale = Math.min(1.0, (double) targetSize / Math.max(width, height));
+        double bytes = (double) width * height * bytesPerPixel * scale * scale;
+        if (bytes > maxBytes) {
+            scale *= Math.sqrt(maxBytes / bytes);
+        }
+        int w = Math.max(1, (int) Math.floor(width * scale));
+        int h = Math.max(1, (int) Math.floor(height * scale));
+        return new int[] { w, h };
+    }
+}
@@ -0,0 +1,85 @@
+package com.sangilov.plugins.mediasession;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+// Пул буферов декодирования для inBitmap: семплированное изображение живёт только до масштабирования,
+// и его память переиспользует следующее декодирование. Опубликованные обложки сюда не попадают —
+// на них ещё может ссылаться MediaMetadataCompat или уведомление, поэтому буферы из пула никогда не «утекают»
+final class BitmapPool {
+
+    private final long maxBytes;
+    // Свободные буферы, самый старый первым; доступ под lock (this)
+    private final ArrayList<Bitmap> free = new ArrayList<>();
+    private long bytes = 0L;
+    private long hits = 0L;
+    private long misses = 0L;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Наименьший свободный буфер того же формата, в который поместится width × height
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        int best = -1;
+        for (int i = 0; i < free.size(); i++) {
+            Bitmap candidate = free.get(i);
+            int size = candidate.getAllocationByteCount();
+            if (candidate.getConfig() == config && size >= needed
+                    && (best < 0 || size < free.get(best).getAllocationByteCount())) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        Bitmap bitmap = free.remove(best);
+        bytes -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    // Только буферы, которые не покидали декодер; лишние освобождаются сразу
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        while (bytes + size > maxBytes && !free.isEmpty()) {
+            Bitmap evicted = free.remove(0);
+            bytes -= evicted.getAllocationByteCount();
+            evicted.recycle();
+        }
+        free.add(bitmap);
+        bytes += size;
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : free) {
+            bitmap.recycle();
+        }
+        free.clear();
+        bytes = 0L;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        return config == Bitmap.Config.RGB_565 ? 2 : 4;
+    }
+}
@@ -0,0 +1,81 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// LRU страниц дерева обзора, ограниченный суммарным числом элементов, а не числом страниц:
+// повторный обзор того же узла не ходит через мост в JS, а большая библиотека не оседает в памяти целиком
+final class BrowseCache<T> {
+
+    private final int maxItems;
+    private final LinkedHashMap<String, List<T>> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private int items = 0;
+    private long hits = 0L;
+    private long misses = 0L;
+
+    BrowseCache(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    static String key(String parentId, int page, int pageSize) {
+        return parentId + '\n' + page + '/' + pageSize;
+    }
+
+    synchronized List<T> get(String key) {
+        List<T> page = pages.get(key);
+        if (page != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return page;
+    }
+
+    // Страница больше всего кэша не кэшируется, остальные вытесняются по LRU
+    synchronized void put(String key, List<T> page) {
+        List<T> previous = pages.remove(key);
+        if (previous != null) items -= previous.size();
+        if (page.size() > maxItems) return;
+
+        pages.put(key, page);
+        items += page.size();
+        Iterator<Map.Entry<String, List<T>>> it = pages.entrySet().iterator();
+        while (items > maxItems && it.hasNext()) {
+            Map.Entry<String, List<T>> eldest = it.next();
+            items -= eldest.getValue().size();
+            it.remove();
+        }
+    }
+
+    // Все страницы узла; null — весь кэш
+    synchronized void invalidate(String parentId) {
+        if (parentId == null) {
+            pages.clear();
+            items = 0;
+            return;
+        }
+        String prefix = parentId + '\n';
+        Iterator<Map.Entry<String, List<T>>> it = pages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<T>> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                items -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int getItemCount() {
+        return items;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
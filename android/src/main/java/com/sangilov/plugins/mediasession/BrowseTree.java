@@ -0,0 +1,191 @@
+package com.sangilov.plugins.mediasession;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+
+import androidx.media.MediaBrowserServiceCompat;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Дерево обзора для Android Auto / Wear: дети узла запрашиваются у JS лениво и постранично
+// (событие browseRequest → provideBrowseChildren), ответы кэшируются в BrowseCache
+final class BrowseTree {
+
+    static final String ROOT_ID = "root";
+
+    private static final String PREFS_NAME = "media_session_control";
+    private static final String PREF_BROWSABLE = "browsable";
+    private static final String PREF_ALLOWED_PACKAGES = "browseAllowedPackages";
+    // Android Auto, Wear OS, Ассистент и медиаплеер в шторке; пакет клиента MediaBrowserServiceCompat
+    // уже сверил с его uid. Остальных добавляет приложение через setBrowsingEnabled({ allowedPackages })
+    private static final Set<String> KNOWN_CONTROLLERS = new HashSet<>(Arrays.asList(
+            "com.google.android.projection.gearhead",
+            "com.google.android.wearable.app",
+            "com.google.android.googlequicksearchbox",
+            "com.android.systemui"));
+    // Без EXTRA_PAGE контроллер ждёт всех детей; отдаём не больше, чтобы не упереться в лимит Binder
+    private static final int MAX_UNPAGED_CHILDREN = 500;
+    private static final int MAX_CACHED_ITEMS = 2000;
+    private static final long REQUEST_TIMEOUT_MS = 5000L;
+
+    private final Handler handler;
+    private final BrowseCache<MediaBrowserCompat.MediaItem> cache = new BrowseCache<>(MAX_CACHED_ITEMS);
+
+    // Ожидающие ответа JS запросы; одинаковые страницы ждут один общий ответ. Доступ под lock (this)
+    private final Map<Integer, Pending> pending = new HashMap<>();
+    private final Map<String, Pending> pendingByKey = new HashMap<>();
+    private int nextRequestId = 0;
+    private long timedOut = 0L;
+
+    BrowseTree(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Флаг хранится в SharedPreferences: Android Auto может поднять сервис раньше, чем WebView
+    static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getBoolean(PREF_BROWSABLE, false);
+    }
+
+    static void setEnabled(Context context, boolean enabled) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(PREF_BROWSABLE, enabled).apply();
+    }
+
+    static void setAllowedPackages(Context context, Collection<String> packages) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putStringSet(PREF_ALLOWED_PACKAGES, new HashSet<>(packages)).apply();
+    }
+
+    // Дерево обзора отдаём только своему приложению, системе и известным контроллерам
+    static boolean isAllowedController(Context context, String packageName, int uid) {
+        if (uid == Process.myUid() || uid == Process.SYSTEM_UID) return true;
+        if (KNOWN_CONTROLLERS.contains(packageName)) return true;
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getStringSet(PREF_ALLOWED_PACKAGES, Collections.emptySet())
+                .contains(packageName);
+    }
+
+    void load(String parentId, Bundle options, MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result) {
+        int page = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1) : -1;
+        int pageSize = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1) : -1;
+        if (page < 0 || pageSize <= 0) {
+            page = 0;
+            pageSize = MAX_UNPAGED_CHILDREN;
+        }
+
+        String key = BrowseCache.key(parentId, page, pageSize);
+        List<MediaBrowserCompat.MediaItem> cached = cache.get(key);
+        if (cached != null) {
+            result.sendResult(cached);
+            return;
+        }
+
+        result.detach();
+        int requestId;
+        synchronized (this) {
+            Pending existing = pendingByKey.get(key);
+            if (existing != null) {
+                existing.results.add(result);
+                return;
+            }
+            requestId = ++nextRequestId;
+            Pending request = new Pending(key, result);
+            pending.put(requestId, request);
+            pendingByKey.put(key, request);
+        }
+        // JS не ответил (мост не загружен) — пустой список, контроллер не должен висеть
+        handler.postDelayed(() -> {
+            if (complete(requestId, null)) {
+                synchronized (this) {
+                    timedOut++;
+                }
+            }
+        }, REQUEST_TIMEOUT_MS);
+
+        JSObject data = new JSObject();
+        data.put("requestId", requestId);
+        data.put("parentId", parentId);
+        data.put("page", page);
+        data.put("pageSize", pageSize);
+        MediaSessionControlPlugin.sendEvent("browseRequest", data);
+    }
+
+    // Ответ JS; items == null — таймаут, результат не кэшируется
+    boolean complete(int requestId, List<MediaBrowserCompat.MediaItem> items) {
+        Pending request;
+        synchronized (this) {
+            request = pending.remove(requestId);
+            if (request == null) return false;
+            pendingByKey.remove(request.key);
+        }
+        if (items != null) {
+            cache.put(request.key, items);
+        }
+        List<MediaBrowserCompat.MediaItem> response = items != null ? items : new ArrayList<>();
+        for (MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result : request.results) {
+            result.sendResult(response);
+        }
+        return true;
+    }
+
+    void invalidate(String parentId) {
+        cache.invalidate(parentId);
+    }
+
+    synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    BrowseCache<MediaBrowserCompat.MediaItem> getCache() {
+        return cache;
+    }
+
+    static List<MediaBrowserCompat.MediaItem> toMediaItems(List<Bundle> bundles) {
+        List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(bundles.size());
+        for (Bundle b : bundles) {
+            String mediaId = b.getString("mediaId");
+            if (mediaId == null) continue;
+            MediaDescriptionCompat.Builder description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(mediaId)
+                    .setTitle(b.getString("title"))
+                    .setSubtitle(b.getString("subtitle"));
+            String iconUri = b.getString("iconUri");
+            if (iconUri != null && !iconUri.isEmpty()) {
+                description.setIconUri(Uri.parse(iconUri));
+            }
+            int flags = 0;
+            if (b.getBoolean("browsable", false)) flags |= MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
+            if (b.getBoolean("playable", !b.getBoolean("browsable", false))) {
+                flags |= MediaBrowserCompat.MediaItem.FLAG_PLAYABLE;
+            }
+            items.add(new MediaBrowserCompat.MediaItem(description.build(), flags));
+        }
+        return items;
+    }
+
+    private static final class Pending {
+        final String key;
+        final List<MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>>> results = new ArrayList<>(1);
+
+        Pending(String key, MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result) {
+            this.key = key;
+            results.add(result);
+        }
+    }
+}
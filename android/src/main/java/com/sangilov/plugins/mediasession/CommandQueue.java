@@ -0,0 +1,62 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Очередь команд прямого канала: для "схлопываемых" действий ещё не выполненная команда
+// заменяется новой (несколько seekTo подряд → последний). Заменяется только команда в хвосте очереди —
+// иначе новая перепрыгнула бы через поставленные после прежней (META(A), INIT(B), META(C) → C, затем B)
+final class CommandQueue<T> {
+
+    static final class Command<T> {
+        final String action;
+        T payload;
+        long enqueuedAt;
+
+        Command(String action, T payload, long enqueuedAt) {
+            this.action = action;
+            this.payload = payload;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final ArrayDeque<Command<T>> queue = new ArrayDeque<>();
+    private final Set<String> collapsibleActions;
+    private long collapsed = 0L;
+
+    CommandQueue(String... collapsibleActions) {
+        this.collapsibleActions = new HashSet<>(Arrays.asList(collapsibleActions));
+    }
+
+    // true — очередь была пуста и нужно запланировать выборку
+    synchronized boolean offer(String action, T payload, long now) {
+        if (collapsibleActions.contains(action)) {
+            // Хвост ещё не выбран: poll() забирает команду до её выполнения
+            Command<T> pending = queue.peekLast();
+            if (pending != null && pending.action.equals(action)) {
+                pending.payload = payload;
+                pending.enqueuedAt = now;
+                collapsed++;
+                return false;
+            }
+        }
+        Command<T> command = new Command<>(action, payload, now);
+        boolean wasEmpty = queue.isEmpty();
+        queue.add(command);
+        return wasEmpty;
+    }
+
+    synchronized Command<T> poll() {
+        return queue.poll();
+    }
+
+    synchronized int size() {
+        return queue.size();
+    }
+
+    synchronized long getCollapsed() {
+        return collapsed;
+    }
+}
@@ -0,0 +1,116 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Кольцевой журнал событий для JS: события нумеруются и ждут доставки, пока мост не готов
+// (перезагрузка WebView, плагин ещё не загружен). Слоты — параллельные массивы, на событие
+// ничего не выделяется. Подряд идущие недоставленные события из mergeable (seekTo при перемотке)
+// склеиваются в последнее. При переполнении теряются самые старые.
+final class EventJournal<D> {
+
+    interface Sink<D> {
+        void deliver(long seq, String event, long position, boolean hasPosition, D data);
+    }
+
+    private final int capacity;
+    private final Set<String> mergeable;
+    private final long[] seqs;
+    private final String[] events;
+    private final long[] positions;
+    private final boolean[] hasPositions;
+    private final Object[] data;
+
+    // Недоставленные события: head — самое старое; доступ под lock (this)
+    private int head = 0;
+    private int size = 0;
+    private long lastSeq = 0L;
+    private long appended = 0L;
+    private long merged = 0L;
+    private long overwritten = 0L;
+
+    EventJournal(int capacity, String... mergeableEvents) {
+        this.capacity = capacity;
+        this.mergeable = new HashSet<>(Arrays.asList(mergeableEvents));
+        this.seqs = new long[capacity];
+        this.events = new String[capacity];
+        this.positions = new long[capacity];
+        this.hasPositions = new boolean[capacity];
+        this.data = new Object[capacity];
+    }
+
+    synchronized long append(String event, long position, boolean hasPosition, D payload) {
+        appended++;
+        long seq = ++lastSeq;
+        int slot;
+        if (size > 0 && mergeable.contains(event) && event.equals(events[index(size - 1)])) {
+            merged++;
+            slot = index(size - 1);
+        } else if (size == capacity) {
+            overwritten++;
+            slot = head;
+            head = index(1);
+        } else {
+            slot = index(size);
+            size++;
+        }
+        seqs[slot] = seq;
+        events[slot] = event;
+        positions[slot] = position;
+        hasPositions[slot] = hasPosition;
+        data[slot] = payload;
+        return seq;
+    }
+
+    // Доставка по одному событию: sink вызывается вне lock, запись с других потоков не ждёт доставки
+    @SuppressWarnings("unchecked")
+    int drain(Sink<D> sink) {
+        int delivered = 0;
+        while (true) {
+            long seq;
+            String event;
+            long position;
+            boolean hasPosition;
+            D payload;
+            synchronized (this) {
+                if (size == 0) return delivered;
+                seq = seqs[head];
+                event = events[head];
+                position = positions[head];
+                hasPosition = hasPositions[head];
+                payload = (D) data[head];
+                events[head] = null;
+                data[head] = null;
+                head = index(1);
+                size--;
+            }
+            sink.deliver(seq, event, position, hasPosition, payload);
+            delivered++;
+        }
+    }
+
+    synchronized int getPending() {
+        return size;
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    synchronized long getAppended() {
+        return appended;
+    }
+
+    synchronized long getMerged() {
+        return merged;
+    }
+
+    synchronized long getOverwritten() {
+        return overwritten;
+    }
+
+    private int index(int offset) {
+        return (head + offset) % capacity;
+    }
+}
@@ -0,0 +1,67 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Счётчик задержек без аллокаций: количество, сумма, максимум и гистограмма
+// по степеням двойки в микросекундах (корзина i — до 2^i мкс), из которой оцениваются перцентили
+final class LatencyStats {
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        if (nanos < 0) return;
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        buckets.incrementAndGet(bucketFor(nanos / 1000L));
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getAverageMicros() {
+        long n = count.get();
+        return n == 0 ? 0L : totalNanos.get() / n / 1000L;
+    }
+
+    long getMaxMicros() {
+        return maxNanos.get() / 1000L;
+    }
+
+    // Верхняя граница корзины, в которую попал q-й перцентиль (не больше максимума)
+    long getPercentileMicros(double q) {
+        long n = count.get();
+        if (n == 0) return 0L;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    private static int bucketFor(long micros) {
+        if (micros <= 1) return 0;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " avg=" + getAverageMicros() + "us p95=" + getPercentileMicros(0.95)
+                + "us max=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,160 @@
+package com.sangilov.plugins.mediasession;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Base64;
+import android.util.Base64InputStream;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Обложки без сети: file://, content://, data: (base64) и локальные пути Capacitor
+// (http(s)://localhost/_capacitor_file_/…, /_capacitor_content_/…, ассеты веб-приложения)
+final class LocalArtworkSource {
+
+    static final String CAPACITOR_FILE = "/_capacitor_file_";
+    static final String CAPACITOR_CONTENT = "/_capacitor_content_";
+    static final String LOCAL_HOST = "localhost";
+    static final String WEB_ASSETS_DIR = "public";
+
+    // Хост встроенного сервера Capacitor (server.hostname); плагин уточняет его в load()
+    private static volatile String serverHost = LOCAL_HOST;
+
+    private LocalArtworkSource() {}
+
+    static void setServerUrl(String url) {
+        String host = url != null ? Uri.parse(url).getHost() : null;
+        serverHost = host != null && !host.isEmpty() ? host : LOCAL_HOST;
+    }
+
+    static boolean isLocal(String src) {
+        if (src == null || src.isEmpty()) return false;
+        if (src.startsWith("/") || src.startsWith("file:") || src.startsWith("content:") || src.startsWith("data:")) {
+            return true;
+        }
+        return isCapacitorServer(Uri.parse(src));
+    }
+
+    // Только адрес, который WebView перехватывает сам: http(s), хост Capacitor и без порта.
+    // http://localhost:3000 — настоящий сервер (dev-сервер, локальный прокси), его обложки идут по сети
+    static boolean isCapacitorServer(Uri uri) {
+        String scheme = uri.getScheme();
+        return ("https".equals(scheme) || "http".equals(scheme))
+                && serverHost.equalsIgnoreCase(uri.getHost())
+                && uri.getPort() == -1;
+    }
+
+    static Bitmap decode(Context context, String src, int targetSize, boolean rgb565, BitmapPool pool) {
+        if (src.startsWith("data:")) {
+            return decodeDataUri(src, targetSize, rgb565, pool);
+        }
+
+        Uri uri = Uri.parse(src);
+        String scheme = uri.getScheme();
+        if ("file".equals(scheme)) {
+            return decodeFile(new File(uri.getPath()), targetSize, rgb565, pool);
+        }
+        if ("content".equals(scheme)) {
+            return decodeContent(context, uri, targetSize, rgb565, pool);
+        }
+
+        // Путь веб-сервера Capacitor: сначала специальные префиксы, затем ассеты приложения
+        String path = uri.getPath();
+        if (path == null) return null;
+        if (path.startsWith(CAPACITOR_FILE + "/")) {
+            return decodeFile(new File(path.substring(CAPACITOR_FILE.length())), targetSize, rgb565, pool);
+        }
+        if (path.startsWith(CAPACITOR_CONTENT + "/")) {
+            Uri content = Uri.parse("content:/" + path.substring(CAPACITOR_CONTENT.length()));
+            return decodeContent(context, content, targetSize, rgb565, pool);
+        }
+        return decodeAsset(context, WEB_ASSETS_DIR + path, targetSize, rgb565, pool);
+    }
+
+    private static Bitmap decodeFile(File file, int targetSize, boolean rgb565, BitmapPool pool) {
+        if (!file.isFile()) return null;
+        return ArtworkDecoder.decode(options -> {
+            try (ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY)) {
+                return BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor(), null, options);
+            }
+        }, targetSize, rgb565, pool);
+    }
+
+    private static Bitmap decodeContent(Context context, Uri uri, int targetSize, boolean rgb565, BitmapPool pool) {
+        return ArtworkDecoder.decode(options -> {
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r")) {
+                if (pfd == null) return null;
+                return BitmapFactory.decodeFileDescriptor(pfd.getFileDescriptor(), null, options);
+            }
+        }, targetSize, rgb565, pool);
+    }
+
+    private static Bitmap decodeAsset(Context context, String assetPath, int targetSize, boolean rgb565,
+                                      BitmapPool pool) {
+        String normalized = assetPath.replace("//", "/");
+        return ArtworkDecoder.decode(options -> {
+            // Несжатые ассеты (png/jpg) читаются прямо по дескриптору, сжатые — потоком
+            try (AssetFileDescriptor afd = context.getAssets().openFd(normalized)) {
+                try (InputStream in = afd.createInputStream()) {
+                    return BitmapFactory.decodeStream(in, null, options);
+                }
+            } catch (FileNotFoundException compressed) {
+                try (InputStream in = context.getAssets().open(normalized)) {
+                    return BitmapFactory.decodeStream(in, null, options);
+                }
+            }
+        }, targetSize, rgb565, pool);
+    }
+
+    // data:[<mime>][;base64],<payload> — base64 читается потоком прямо из строки, без копий payload
+    private static Bitmap decodeDataUri(String src, int targetSize, boolean rgb565, BitmapPool pool) {
+        int comma = src.indexOf(',');
+        if (comma < 0 || !src.startsWith(";base64", comma - ";base64".length())) return null;
+        return ArtworkDecoder.decode(options -> {
+            try (InputStream in = new Base64InputStream(new AsciiInputStream(src, comma + 1), Base64.DEFAULT)) {
+                return BitmapFactory.decodeStream(in, null, options);
+            } catch (IOException e) {
+                return null;
+            }
+        }, targetSize, rgb565, pool);
+    }
+
+    // Символы строки как байты ASCII, начиная с offset
+    private static final class AsciiInputStream extends InputStream {
+        private final String source;
+        private int position;
+
+        AsciiInputStream(String source, int offset) {
+            this.source = source;
+            this.position = offset;
+        }
+
+        @Override
+        public int read() {
+            return position < source.length() ? source.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) return 0;
+            int available = source.length() - position;
+            if (available <= 0) return -1;
+            int count = Math.min(length, available);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) source.charAt(position++);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return source.length() - position;
+        }
+    }
+}
@@ -2,28 +2,142 @@
 
 package com.sangilov.plugins.mediasession;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 @CapacitorPlugin(name = "MediaSessionControl")
 public class MediaSessionControlPlugin extends Plugin {
 
-    private static MediaSessionControlPlugin instance;
+    private static volatile MediaSessionControlPlugin instance;
+    // События приходят с потока сессии; в мост Capacitor отдаём их только с главного потока
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final int JOURNAL_CAPACITY = 256;
+    private static final String EVENT_NAME = "mediaSessionEvent";
+    // События ждут в журнале, пока страница не подпишется на EVENT_NAME, и переигрываются в addListener;
+    // seekTo при перемотке склеиваются
+    private static final EventJournal<JSObject> journal =
+            new EventJournal<>(JOURNAL_CAPACITY, "seekTo", "progress");
+    private static final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private static final Runnable drainEvents = MediaSessionControlPlugin::drainEvents;
+    private static final AtomicLong droppedEvents = new AtomicLong();
+
+    // Работающий сервис; команды идут в него напрямую, Intent — только для холодного старта
+    private volatile MediaSessionService boundService;
+    // bindService/unbindService вызываются и с главного потока (ServiceConnection), и с потока моста
+    private boolean bindRequested = false;
+    private boolean destroyed = false;
+    // Интервал события progress; переживает перезапуск сервиса и передаётся в init
+    private volatile long progressIntervalMs = 0L;
+    // Интервал события diagnostics; 0 — выключено
+    private volatile long diagnosticsIntervalMs = 0L;
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            attachService(((MediaSessionService.LocalBinder) service).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            boundService = null;
+        }
+
+        // stopSelf() убивает привязку без BIND_AUTO_CREATE насовсем: без повторной привязки
+        // следующий запуск сервиса остался бы без прямого канала
+        @Override
+        public void onBindingDied(ComponentName name) {
+            boundService = null;
+            unbindFromService();
+            bindToService();
+        }
+
+        // Сервис не отдал LocalBinder — держать такую привязку бессмысленно, повторим при следующем старте
+        @Override
+        public void onNullBinding(ComponentName name) {
+            boundService = null;
+            unbindFromService();
+        }
+    };
 
     @Override
     public void load() {
         super.load();
-        instance = this;
+        attachEvents();
+        LocalArtworkSource.setServerUrl(getBridge().getLocalUrl());
+
+        bindToService();
 
         checkIntentExtras();
     }
+
+    // Без BIND_AUTO_CREATE: привязка не создаёт сервис, а подключается, когда его запустит init
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    synchronized void bindToService() {
+        if (bindRequested || destroyed) return;
+        bindRequested = getContext().bindService(
+                new Intent(getContext(), MediaSessionService.class).setAction(MediaSessionService.ACTION_BIND_LOCAL),
+                serviceConnection, 0);
+    }
+
+    private synchronized void unbindFromService() {
+        if (!bindRequested) return;
+        bindRequested = false;
+        try {
+            getContext().unbindService(serviceConnection);
+        } catch (IllegalArgumentException e) {
+            // Система уже забыла привязку
+        }
+    }
+
+    // Отдельно от load(): стресс-тесты подключают плагин без моста Capacitor
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    void attachEvents() {
+        instance = this;
+        // Переигрываем то, что случилось, пока плагина не было (перезагрузка моста, холодный старт)
+        scheduleDrain();
+    }
+
+    // load() выполняется до того, как JS страницы вызовет addListener: без слушателя Capacitor
+    // молча отбросил бы переигранные события, поэтому журнал сливается только после подписки
+    @Override
+    @PluginMethod(returnType = PluginMethod.RETURN_NONE)
+    public void addListener(PluginCall call) {
+        super.addListener(call);
+        if (EVENT_NAME.equals(call.getString("eventName"))) {
+            scheduleDrain();
+        }
+    }
+
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    void attachService(MediaSessionService service) {
+        boundService = service;
+    }
+
     @Override
     protected void handleOnNewIntent(Intent intent) {
         super.handleOnNewIntent(intent);
@@ -59,15 +173,69 @@ public class MediaSessionControlPlugin extends Plugin {
     }
 
     public static void sendEvent(String event, Object data) {
-        if (instance == null) return;
-        JSObject ret = new JSObject();
-        ret.put("event", event);
         if (data instanceof Long) {
-            ret.put("position", (Long) data);
-        } else if (data instanceof JSObject) {
-            ret.put("data", (JSObject) data);
+            sendEvent(event, ((Long) data).longValue());
+            return;
+        }
+        if (instance == null && isTransient(event)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        journal.append(event, 0L, false, data instanceof JSObject ? (JSObject) data : null);
+        scheduleDrain();
+    }
+
+    // Без упаковки позиции в Long: на горячем пути (progress, seekTo) JSObject создаётся только при доставке
+    public static void sendEvent(String event, long position) {
+        if (instance == null && isTransient(event)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        journal.append(event, position, true, null);
+        scheduleDrain();
+    }
+
+    // Прогресс, диагностика и запросы обзора к моменту переигрывания уже устарели — их не копим
+    private static boolean isTransient(String event) {
+        return "progress".equals(event) || "diagnostics".equals(event) || "browseRequest".equals(event);
+    }
+
+    static JSObject describeEventDiagnostics() {
+        JSObject ret = new JSObject();
+        ret.put("sent", journal.getAppended());
+        ret.put("merged", journal.getMerged());
+        ret.put("overwritten", journal.getOverwritten());
+        ret.put("droppedWithoutListener", droppedEvents.get());
+        ret.put("pending", journal.getPending());
+        ret.put("lastSeq", journal.getLastSeq());
+        return ret;
+    }
+
+    private static void scheduleDrain() {
+        if (instance == null) return;
+        if (drainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(drainEvents);
         }
-        instance.notifyListeners("mediaSessionEvent", ret);
+    }
+
+    private static void drainEvents() {
+        drainScheduled.set(false);
+        MediaSessionControlPlugin plugin = instance;
+        // Без подписчика события остаются в журнале; addListener запланирует слив заново
+        if (plugin == null || !plugin.hasListeners(EVENT_NAME)) return;
+        long traced = Tracer.begin("events.drain");
+        journal.drain((seq, event, position, hasPosition, data) -> {
+            JSObject ret = new JSObject();
+            ret.put("event", event);
+            ret.put("seq", seq);
+            if (hasPosition) {
+                ret.put("position", position);
+            } else if (data != null) {
+                ret.put("data", data);
+            }
+            plugin.notifyListeners(EVENT_NAME, ret);
+        });
+        Tracer.end("events.drain", null, traced);
     }
 
     @PluginMethod
@@ -80,21 +248,32 @@ public class MediaSessionControlPlugin extends Plugin {
         Long position = Math.round(call.getDouble("position", 0.0));
         Boolean isPlaying = call.getBoolean("isPlaying", false);
         String targetPage = call.getString("targetPage", "");
+        Integer artworkSize = call.getInt("artworkSize", 0);
+        Boolean artworkRgb565 = call.getBoolean("artworkRgb565", false);
+        Boolean progressiveArtwork = call.getBoolean("progressiveArtwork", true);
+        Float notificationMaxRate = call.getFloat("notificationMaxRate", NotificationScheduler.DEFAULT_MAX_RATE);
+        Long warmTimeout = Math.round(call.getDouble("warmTimeout", 0.0));
     
-        Context ctx = getContext();
-        Intent intent = new Intent(ctx, MediaSessionService.class);
-        intent.setAction(MediaSessionService.ACTION_INIT);
-        intent.putExtra("title", title);
-        intent.putExtra("artist", artist);
-        intent.putExtra("album", album);
-        intent.putExtra("cover", cover);
-        intent.putExtra("duration", duration != null ? duration : 0L);
-        intent.putExtra("position", position != null ? position : 0L);
-        intent.putExtra("isPlaying", isPlaying != null ? isPlaying : false);
-        intent.putExtra("targetPage", targetPage);
+        Bundle extras = new Bundle();
+        extras.putString("title", title);
+        extras.putString("artist", artist);
+        extras.putString("album", album);
+        extras.putString("cover", cover);
+        extras.putLong("duration", duration != null ? duration : 0L);
+        extras.putLong("position", position != null ? position : 0L);
+        extras.putBoolean("isPlaying", isPlaying != null ? isPlaying : false);
+        extras.putString("targetPage", targetPage);
+        extras.putInt("artworkSize", artworkSize != null ? artworkSize : 0);
+        extras.putBoolean("artworkRgb565", artworkRgb565 != null ? artworkRgb565 : false);
+        extras.putBoolean("progressiveArtwork", progressiveArtwork != null ? progressiveArtwork : true);
+        extras.putFloat("notificationMaxRate",
+                notificationMaxRate != null ? notificationMaxRate : NotificationScheduler.DEFAULT_MAX_RATE);
+        extras.putLong("progressInterval", progressIntervalMs);
+        extras.putLong("diagnosticsInterval", diagnosticsIntervalMs);
+        extras.putLong("warmTimeout", warmTimeout != null ? warmTimeout : 0L);
         
         try {
-            ctx.startForegroundService(intent);
+            sendCommand(MediaSessionService.ACTION_INIT, extras);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to start service: " + e.getMessage());
@@ -156,10 +335,9 @@ public class MediaSessionControlPlugin extends Plugin {
         Long position = Math.round(call.getDouble("position", 0.0));
         
         try {
-            Intent intent = new Intent(getContext(), MediaSessionService.class);
-            intent.setAction(MediaSessionService.ACTION_SEEK_TO);
-            intent.putExtra("position", position != null ? position : 0L);
-            getContext().startForegroundService(intent);
+            Bundle extras = new Bundle();
+            extras.putLong("position", position != null ? position : 0L);
+            sendCommand(MediaSessionService.ACTION_SEEK_TO, extras);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to send seekTo action: " + e.getMessage());
@@ -173,16 +351,21 @@ public class MediaSessionControlPlugin extends Plugin {
         String album = call.getString("album", "");
         String cover = call.getString("cover", "");
         Long duration = Math.round(call.getDouble("duration", 0.0));
+        Integer artworkSize = call.getInt("artworkSize", 0);
+        Boolean artworkRgb565 = call.getBoolean("artworkRgb565", false);
+        Boolean progressiveArtwork = call.getBoolean("progressiveArtwork", true);
 
         try {
-            Intent intent = new Intent(getContext(), MediaSessionService.class);
-            intent.setAction(MediaSessionService.ACTION_UPDATE_METADATA);
-            intent.putExtra("title", title);
-            intent.putExtra("artist", artist);
-            intent.putExtra("album", album);
-            intent.putExtra("cover", cover);
-            intent.putExtra("duration", duration != null ? duration : 0L);
-            getContext().startForegroundService(intent);
+            Bundle extras = new Bundle();
+            extras.putString("title", title);
+            extras.putString("artist", artist);
+            extras.putString("album", album);
+            extras.putString("cover", cover);
+            extras.putLong("duration", duration != null ? duration : 0L);
+            extras.putInt("artworkSize", artworkSize != null ? artworkSize : 0);
+            extras.putBoolean("artworkRgb565", artworkRgb565 != null ? artworkRgb565 : false);
+            extras.putBoolean("progressiveArtwork", progressiveArtwork != null ? progressiveArtwork : true);
+            sendCommand(MediaSessionService.ACTION_UPDATE_METADATA, extras);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to update metadata: " + e.getMessage());
@@ -196,27 +379,327 @@ public class MediaSessionControlPlugin extends Plugin {
         Float playbackSpeed = call.getFloat("playbackSpeed", 1.0f);
 
         try {
-            Intent intent = new Intent(getContext(), MediaSessionService.class);
-            intent.setAction(MediaSessionService.ACTION_UPDATE_PLAYBACK_STATE);
-            intent.putExtra("state", state);
-            intent.putExtra("position", position != null ? position : 0L);
-            intent.putExtra("playbackSpeed", playbackSpeed != null ? playbackSpeed : 1.0f);
-            getContext().startForegroundService(intent);
+            Bundle extras = new Bundle();
+            extras.putString("state", state);
+            extras.putLong("position", position != null ? position : 0L);
+            extras.putFloat("playbackSpeed", playbackSpeed != null ? playbackSpeed : 1.0f);
+            sendCommand(MediaSessionService.ACTION_UPDATE_PLAYBACK_STATE, extras);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to update playback state: " + e.getMessage());
         }
     }
 
+    @PluginMethod
+    public void applyState(PluginCall call) {
+        JSObject data = call.getData();
+        Bundle extras = new Bundle();
+
+        if (data.has("title")) extras.putString("title", call.getString("title", ""));
+        if (data.has("artist")) extras.putString("artist", call.getString("artist", ""));
+        if (data.has("album")) extras.putString("album", call.getString("album", ""));
+        if (data.has("cover")) extras.putString("cover", call.getString("cover", ""));
+        if (data.has("duration")) extras.putLong("duration", Math.round(call.getDouble("duration", 0.0)));
+        if (data.has("artworkSize")) extras.putInt("artworkSize", call.getInt("artworkSize", 0));
+        if (data.has("artworkRgb565")) extras.putBoolean("artworkRgb565", call.getBoolean("artworkRgb565", false));
+        if (data.has("progressiveArtwork")) {
+            extras.putBoolean("progressiveArtwork", call.getBoolean("progressiveArtwork", true));
+        }
+        if (data.has("state")) extras.putString("state", call.getString("state", "paused"));
+        if (data.has("position")) extras.putLong("position", Math.round(call.getDouble("position", 0.0)));
+        if (data.has("playbackSpeed")) extras.putFloat("playbackSpeed", call.getFloat("playbackSpeed", 1.0f));
+        if (data.has("targetPage")) extras.putString("targetPage", call.getString("targetPage", ""));
+
+        try {
+            sendCommand(MediaSessionService.ACTION_APPLY_STATE, extras);
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to apply state: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void setQueue(PluginCall call) {
+        JSArray items = call.getArray("items", new JSArray());
+        ArrayList<Bundle> bundles = new ArrayList<>(items.length());
+        try {
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                Bundle b = new Bundle();
+                b.putString("id", item.optString("id", String.valueOf(i)));
+                b.putString("title", item.optString("title", ""));
+                b.putString("artist", item.optString("artist", ""));
+                b.putString("album", item.optString("album", ""));
+                b.putString("cover", item.optString("cover", ""));
+                b.putLong("duration", Math.round(item.optDouble("duration", 0.0)));
+                b.putString("src", item.optString("src", ""));
+                bundles.add(b);
+            }
+        } catch (JSONException e) {
+            call.reject("Invalid queue items: " + e.getMessage());
+            return;
+        }
+        Integer activeIndex = call.getInt("activeIndex", -1);
+        Integer prefetch = call.getInt("prefetch", 1);
+
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList("items", bundles);
+            extras.putInt("activeIndex", activeIndex != null ? activeIndex : -1);
+            extras.putInt("prefetch", prefetch != null ? prefetch : 1);
+            sendCommand(MediaSessionService.ACTION_SET_QUEUE, extras);
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to set queue: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void setActiveQueueItem(PluginCall call) {
+        Bundle extras = new Bundle();
+        if (call.getData().has("id")) {
+            extras.putString("id", call.getString("id"));
+        } else if (call.getData().has("index")) {
+            Integer index = call.getInt("index", -1);
+            extras.putInt("index", index != null ? index : -1);
+        } else {
+            call.reject("index or id is required");
+            return;
+        }
+
+        try {
+            sendCommand(MediaSessionService.ACTION_SET_ACTIVE_QUEUE_ITEM, extras);
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to set active queue item: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void setSource(PluginCall call) {
+        String src = call.getString("src");
+        if (src == null || src.isEmpty()) {
+            call.reject("src is required");
+            return;
+        }
+        Long position = Math.round(call.getDouble("position", 0.0));
+        Boolean autoplay = call.getBoolean("autoplay", false);
+
+        try {
+            Bundle extras = new Bundle();
+            extras.putString("src", src);
+            extras.putLong("position", position != null ? position : 0L);
+            extras.putBoolean("autoplay", autoplay != null ? autoplay : false);
+            sendCommand(MediaSessionService.ACTION_SET_SOURCE, extras);
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to set source: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void clearSource(PluginCall call) {
+        // Без работающего сервиса нативного плеера нет — и сбрасывать нечего
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            service.submitCommand(MediaSessionService.ACTION_CLEAR_SOURCE, new Bundle());
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void setBrowsingEnabled(PluginCall call) {
+        Boolean enabled = call.getBoolean("enabled", true);
+        BrowseTree.setEnabled(getContext(), enabled != null && enabled);
+        JSArray allowedPackages = call.getArray("allowedPackages");
+        if (allowedPackages != null) {
+            try {
+                BrowseTree.setAllowedPackages(getContext(), allowedPackages.<String>toList());
+            } catch (JSONException e) {
+                call.reject("allowedPackages must be an array of package names");
+                return;
+            }
+        }
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            service.submitCommand(MediaSessionService.ACTION_INVALIDATE_BROWSE_CHILDREN, new Bundle());
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void provideBrowseChildren(PluginCall call) {
+        Integer requestId = call.getInt("requestId");
+        if (requestId == null) {
+            call.reject("requestId is required");
+            return;
+        }
+        JSArray items = call.getArray("items", new JSArray());
+        ArrayList<Bundle> bundles = new ArrayList<>(items.length());
+        try {
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                Bundle b = new Bundle();
+                b.putString("mediaId", item.optString("mediaId", null));
+                b.putString("title", item.optString("title", ""));
+                b.putString("subtitle", item.optString("subtitle", ""));
+                b.putString("iconUri", item.optString("iconUri", ""));
+                b.putBoolean("browsable", item.optBoolean("browsable", false));
+                if (item.has("playable")) b.putBoolean("playable", item.optBoolean("playable"));
+                bundles.add(b);
+            }
+        } catch (JSONException e) {
+            call.reject("Invalid browse items: " + e.getMessage());
+            return;
+        }
+
+        // Запрос обзора приходит только от работающего сервиса; страница может быть большой,
+        // поэтому только прямой канал — через Intent её не передать
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            Bundle extras = new Bundle();
+            extras.putInt("requestId", requestId);
+            extras.putParcelableArrayList("items", bundles);
+            service.submitCommand(MediaSessionService.ACTION_PROVIDE_BROWSE_CHILDREN, extras);
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void invalidateBrowseChildren(PluginCall call) {
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            Bundle extras = new Bundle();
+            if (call.getData().has("parentId")) extras.putString("parentId", call.getString("parentId"));
+            service.submitCommand(MediaSessionService.ACTION_INVALIDATE_BROWSE_CHILDREN, extras);
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getState(PluginCall call) {
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            call.resolve(service.describeState());
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("state", "stopped");
+        ret.put("position", 0);
+        ret.put("duration", 0);
+        ret.put("playbackSpeed", 1.0);
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void startProgressUpdates(PluginCall call) {
+        Long interval = Math.round(call.getDouble("interval", 1000.0));
+        progressIntervalMs = interval != null && interval > 0 ? interval : 1000L;
+        sendProgressInterval();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void stopProgressUpdates(PluginCall call) {
+        progressIntervalMs = 0L;
+        sendProgressInterval();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getDiagnostics(PluginCall call) {
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands() && service.requestDiagnostics(call::resolve)) {
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("serviceRunning", false);
+        ret.put("events", describeEventDiagnostics());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void startDiagnostics(PluginCall call) {
+        Long interval = Math.round(call.getDouble("interval", 60000.0));
+        diagnosticsIntervalMs = interval != null && interval > 0 ? interval : 60000L;
+        sendDiagnosticsInterval();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void stopDiagnostics(PluginCall call) {
+        diagnosticsIntervalMs = 0L;
+        sendDiagnosticsInterval();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void startTrace(PluginCall call) {
+        Tracer.start(call.getInt("capacity", TraceBuffer.DEFAULT_CAPACITY));
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void stopTrace(PluginCall call) {
+        Tracer.stop();
+        call.resolve();
+    }
+
+    // Буфер выгружается и во время записи; после stopTrace — последний записанный
+    @PluginMethod
+    public void dumpTrace(PluginCall call) {
+        call.resolve(Tracer.toChromeTrace());
+    }
+
+    private void sendDiagnosticsInterval() {
+        MediaSessionService service = boundService;
+        if (service == null || !service.isAcceptingCommands()) return;
+        Bundle extras = new Bundle();
+        extras.putLong("interval", diagnosticsIntervalMs);
+        service.submitCommand(MediaSessionService.ACTION_SET_DIAGNOSTICS_INTERVAL, extras);
+    }
+
+    // Без запущенного сервиса интервал только запоминается: сам по себе progress не должен поднимать сервис
+    private void sendProgressInterval() {
+        MediaSessionService service = boundService;
+        if (service == null || !service.isAcceptingCommands()) return;
+        Bundle extras = new Bundle();
+        extras.putLong("interval", progressIntervalMs);
+        service.submitCommand(MediaSessionService.ACTION_SET_PROGRESS_INTERVAL, extras);
+    }
+
     private void sendSimpleAction(String action) {
+        sendCommand(action, new Bundle());
+    }
+
+    private void sendCommand(String action, Bundle extras) {
+        long traced = Tracer.begin("bridge.sendCommand");
+        extras.putBoolean(MediaSessionService.EXTRA_FROM_PLUGIN, true);
+        MediaSessionService service = boundService;
+        if (service != null && service.isAcceptingCommands()) {
+            service.submitCommand(action, extras);
+            Tracer.end("bridge.sendCommand", action, traced);
+            return;
+        }
         Intent intent = new Intent(getContext(), MediaSessionService.class);
         intent.setAction(action);
+        intent.putExtras(extras);
+        intent.putExtra(MediaSessionService.EXTRA_SENT_AT, SystemClock.elapsedRealtimeNanos());
+        intent.putExtra(MediaSessionService.EXTRA_COMMAND_TOKEN, MediaSessionService.COMMAND_TOKEN);
         getContext().startForegroundService(intent);
+        // Холодный старт: если прежняя привязка была сброшена, следующие команды снова пойдут напрямую
+        bindToService();
+        Tracer.end("bridge.sendCommand", action, traced);
     }
 
     @Override
     protected void handleOnDestroy() {
         instance = null;
+        synchronized (this) {
+            destroyed = true;
+        }
+        unbindFromService();
+        boundService = null;
         super.handleOnDestroy();
     }
 }
\ No newline at end of file
@@ -8,28 +8,42 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+import androidx.media.MediaBrowserServiceCompat;
 import androidx.media.app.NotificationCompat.MediaStyle;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaBrowserCompat;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class MediaSessionService extends Service {
+
+public class MediaSessionService extends MediaBrowserServiceCompat {
 
     public static final String ACTION_INIT = "ACTION_INIT";
     public static final String ACTION_PLAY = "ACTION_PLAY";
@@ -40,36 +54,133 @@ public class MediaSessionService extends Service {
     public static final String ACTION_SEEK_TO = "ACTION_SEEK_TO";
     public static final String ACTION_UPDATE_METADATA = "ACTION_UPDATE_METADATA";
     public static final String ACTION_UPDATE_PLAYBACK_STATE = "ACTION_UPDATE_PLAYBACK_STATE";
+    public static final String ACTION_APPLY_STATE = "ACTION_APPLY_STATE";
+    public static final String ACTION_SET_PROGRESS_INTERVAL = "ACTION_SET_PROGRESS_INTERVAL";
+    public static final String ACTION_SET_DIAGNOSTICS_INTERVAL = "ACTION_SET_DIAGNOSTICS_INTERVAL";
+    public static final String ACTION_SET_QUEUE = "ACTION_SET_QUEUE";
+    public static final String ACTION_SET_ACTIVE_QUEUE_ITEM = "ACTION_SET_ACTIVE_QUEUE_ITEM";
+    public static final String ACTION_PROVIDE_BROWSE_CHILDREN = "ACTION_PROVIDE_BROWSE_CHILDREN";
+    public static final String ACTION_INVALIDATE_BROWSE_CHILDREN = "ACTION_INVALIDATE_BROWSE_CHILDREN";
+    public static final String ACTION_SET_SOURCE = "ACTION_SET_SOURCE";
+    public static final String ACTION_CLEAR_SOURCE = "ACTION_CLEAR_SOURCE";
 
     // public static final String ACTION_OPEN_APP = "ACTION_OPEN_APP";
     public static final String ACTION_DISMISS = "ACTION_DISMISS";
 
+    // Привязка плагина к LocalBinder; любое другое действие, кроме MediaBrowser, получает null
+    static final String ACTION_BIND_LOCAL = "com.sangilov.plugins.mediasession.BIND_LOCAL";
+
+    static final String EXTRA_SENT_AT = "sentAt";
+    // Команды от плагина помечаются, чтобы не отражать их обратно в JS событиями play/pause
+    static final String EXTRA_FROM_PLUGIN = "fromPlugin";
+    // Сервис экспортирован ради MediaBrowser; команды через startService принимаются только
+    // с секретом процесса (плагин и PendingIntent уведомления), чужие приложения его не знают
+    static final String EXTRA_COMMAND_TOKEN = "commandToken";
+    static final long COMMAND_TOKEN = new SecureRandom().nextLong();
+
+    private static final String TAG = "MediaSessionService";
     private static final String CHANNEL_ID = "media_session_channel";
     private static final int NOTIFICATION_ID = 1;
+    private static final long MIN_PROGRESS_INTERVAL_MS = 100L;
+    private static final int MAX_PREFETCH_DISTANCE = 3;
+    private static final int MAX_PUBLISHED_QUEUE = 100;
+    private static final long PERSIST_DELAY_MS = 1000L;
+    private static final long MIN_DIAGNOSTICS_INTERVAL_MS = 1000L;
     private boolean isDismissing = false;
 
     private MediaSessionCompat mediaSession;
     private PlaybackStateCompat.Builder stateBuilder;
     private NotificationManager notificationManager;
-    private ExecutorService executor;
-
-    private String title = "";
-    private String artist = "";
-    private String album = "";
-    private String cover = "";
-    private long duration = 0L;
-    private long position = 0L;
-    private boolean isPlaying = false;
-    private boolean isInternalCall = false;
-    private String targetPage = "";
+    private ArtworkFetcher artworkFetcher;
+    private ArtworkCache artworkCache;
+    private ArtworkLoader artworkLoader;
+    private BrowseTree browseTree;
+    private SessionStore sessionStore;
+    private final Runnable persist = this::persistNow;
+    private boolean persistScheduled = false;
+    // Нативный режим: источник задан через setSource, плеер принадлежит сервису; живёт на потоке сессии
+    private volatile NativePlayer nativePlayer;
+
+    private NotificationCompat.Builder notificationBuilder;
+    private NotificationCompat.Action playAction;
+    private NotificationCompat.Action pauseAction;
+    private NotificationCompat.Action prevAction;
+    private NotificationCompat.Action nextAction;
+    private Intent launchIntent;
+    private PendingIntent contentIntent;
+    private String contentIntentPage;
+    private boolean isForeground = false;
+    private boolean notifiedPlaying = false;
+    private NotificationScheduler notificationScheduler;
+
+    private final IBinder binder = new LocalBinder();
+    private final CommandQueue<Bundle> commandQueue =
+            new CommandQueue<>(ACTION_SEEK_TO, ACTION_UPDATE_METADATA, ACTION_UPDATE_PLAYBACK_STATE);
+    private final Runnable drainCommands = this::drainCommands;
+    private final LatencyStats intentLatency = new LatencyStats();
+    private final LatencyStats directLatency = new LatencyStats();
+    private final StateDiffer stateDiffer = new StateDiffer();
+    private final Runnable progressTick = this::onProgressTick;
+    private long progressIntervalMs = 0L;
+    // Тик уже стоит в очереди потока сессии; только поток сессии
+    private boolean progressTickScheduled = false;
+    private final LatencyStats transportLatency = new LatencyStats();
+    private final LatencyStats notificationLatency = new LatencyStats();
+    private final Runnable diagnosticsTick = this::onDiagnosticsTick;
+    private long diagnosticsIntervalMs = 0L;
+    // Обложка, опубликованная в сессии сейчас, и реакция на нехватку памяти; только поток сессии
+    private Bitmap publishedArtwork;
+    private int lastTrimLevel = -1;
+    private long trims = 0L;
+
+    interface DiagnosticsCallback {
+        void onDiagnostics(JSObject diagnostics);
+    }
+    // Сессия, её колбэки, состояние и уведомление живут на своём потоке, а не на UI-потоке WebView
+    private HandlerThread sessionThread;
+    private Handler sessionHandler;
+    private volatile boolean acceptingCommands = false;
+
+    // Тёплый режим: stop/dismiss не останавливают сервис, сессия остаётся неактивной до таймаута,
+    // и следующий init — просто обновление состояния, а не холодный старт
+    private long warmTimeoutMs = 0L;
+    private boolean warm = false;
+    private boolean initialized = false;
+    private long createdAt;
+    // Тип последнего старта для замера: 0 — не старт, 1 — холодный, 2 — тёплый
+    private int pendingStartKind = 0;
+    private final Runnable warmExpired = this::onWarmExpired;
+    private final LatencyStats coldStarts = new LatencyStats();
+    private final LatencyStats warmStarts = new LatencyStats();
+
+    // Очередь меняется только на потоке сессии, volatile — для describeState с потока моста
+    private volatile PlaybackQueue queue = PlaybackQueue.EMPTY;
+    private int prefetchDistance = 1;
+    private int publishedQueueStart = -1;
+
+    // Пишется только с потока сессии переходами copy-on-write, читается с любого потока без блокировок
+    private final AtomicReference<SessionState> state = new AtomicReference<>(SessionState.EMPTY);
+
+    private interface Transition {
+        SessionState apply(SessionState current);
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        createdAt = SystemClock.elapsedRealtimeNanos();
         
-        executor = Executors.newSingleThreadExecutor();
+        artworkFetcher = new ArtworkFetcher();
+        artworkCache = new ArtworkCache(this, artworkFetcher);
+        artworkLoader = new ArtworkLoader(artworkCache);
         notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         createNotificationChannel();
+        sessionThread = new HandlerThread("MediaSessionControl", Process.THREAD_PRIORITY_AUDIO);
+        sessionThread.start();
+        sessionHandler = new Handler(sessionThread.getLooper());
+        notificationScheduler = new NotificationScheduler(sessionHandler, this::showNotification);
+        browseTree = new BrowseTree(sessionHandler);
+        sessionStore = new SessionStore(this);
 
         mediaSession = new MediaSessionCompat(this, "MediaSessionControl");
         mediaSession.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS |
@@ -82,6 +193,8 @@ public class MediaSessionService extends Service {
                         PlaybackStateCompat.ACTION_STOP |
                         PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
                         PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
+                        PlaybackStateCompat.ACTION_SKIP_TO_QUEUE_ITEM |
+                        PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID |
                         PlaybackStateCompat.ACTION_SEEK_TO
                 );
         mediaSession.setPlaybackState(stateBuilder.build());
@@ -89,132 +202,303 @@ public class MediaSessionService extends Service {
         mediaSession.setCallback(new MediaSessionCompat.Callback() {
             @Override
             public void onPlay() {
-                if (!isInternalCall) {
-                    isPlaying = true;
-                    updateState();
-                    MediaSessionControlPlugin.sendEvent("play", position);
-                    showNotification();
-                    }
+                long traced = Tracer.begin("session.onPlay");
+                play(true);
+                Tracer.end("session.onPlay", null, traced);
             }
 
             @Override
             public void onPause() {
-                if (!isInternalCall && mediaSession != null && mediaSession.isActive()) {
-                    isPlaying = false;
-                    updateState();
-                    MediaSessionControlPlugin.sendEvent("pause", position);
-                    showNotification();
-                } else if (!isInternalCall && mediaSession != null && !mediaSession.isActive()) {
-                    // Если MediaSession неактивна, отправляем stop вместо pause
-                    MediaSessionControlPlugin.sendEvent("stop", position);
-                }
+                long traced = Tracer.begin("session.onPause");
+                pause(true);
+                Tracer.end("session.onPause", null, traced);
             }
 
             @Override
             public void onStop() {
-                if (!isInternalCall) {
-                    isPlaying = false;
-                    position = 0L;
-                    updateState();
-                    // MediaSessionControlPlugin.sendEvent("stop", position);
-                    // Не отправляем notificationDismissed здесь, это будет в ACTION_DISMISS
+                if (isNative()) {
+                    nativePlayer.pause();
+                    nativePlayer.seekTo(0L);
                 }
-}
+                long now = SystemClock.elapsedRealtime();
+                transition(s -> s.withPlaying(false, now).withPosition(0L, now));
+                updateState();
+                // MediaSessionControlPlugin.sendEvent("stop", position);
+                // Не отправляем notificationDismissed здесь, это будет в ACTION_DISMISS
+            }
 
             @Override
             public void onSkipToNext() {
-                MediaSessionControlPlugin.sendEvent("next", null);
+                long traced = Tracer.begin("session.onSkipToNext");
+                skipToNext();
+                Tracer.end("session.onSkipToNext", null, traced);
             }
 
             @Override
             public void onSkipToPrevious() {
-                MediaSessionControlPlugin.sendEvent("previous", null);
+                long traced = Tracer.begin("session.onSkipToPrevious");
+                skipToPrevious();
+                Tracer.end("session.onSkipToPrevious", null, traced);
+            }
+
+            @Override
+            public void onSkipToQueueItem(long id) {
+                // id элемента в системной очереди — его индекс в PlaybackQueue
+                if (activateQueueItem((int) id)) {
+                    MediaSessionControlPlugin.sendEvent("skipToQueueItem", describeQueueItem());
+                }
             }
 
             @Override
             public void onSeekTo(long pos) {
-                position = pos;
-                MediaSessionControlPlugin.sendEvent("seekTo", pos);
-                updateState();
+                long traced = Tracer.begin("session.onSeekTo");
+                seekTo(pos);
+                Tracer.end("session.onSeekTo", null, traced);
             }
-        });
 
+            @Override
+            public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                // Элемент выбран в дереве обзора (Android Auto, Wear) — воспроизведение решает JS
+                JSObject data = new JSObject();
+                data.put("mediaId", mediaId);
+                MediaSessionControlPlugin.sendEvent("playFromMediaId", data);
+            }
+        }, sessionHandler);
+
+        setSessionToken(mediaSession.getSessionToken());
         mediaSession.setActive(true);
+        acceptingCommands = true;
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent == null || intent.getAction() == null) return START_STICKY;
-
-        switch (intent.getAction()) {
-            case ACTION_INIT:
-                title = intent.getStringExtra("title");
-                artist = intent.getStringExtra("artist");
-                album = intent.getStringExtra("album");
-                cover = intent.getStringExtra("cover");
-                duration = intent.getLongExtra("duration", 0L);
-                position = intent.getLongExtra("position", 0L);
-                isPlaying = intent.getBooleanExtra("isPlaying", false);
-                targetPage = intent.getStringExtra("targetPage");
+        // Перезапуск START_STICKY после смерти процесса: поднимаем последний сохранённый снимок
+        if (intent == null) {
+            sessionHandler.post(this::restoreSession);
+            return START_STICKY;
+        }
+        if (intent.getAction() == null) return START_STICKY;
+        if (intent.getLongExtra(EXTRA_COMMAND_TOKEN, 0L) != COMMAND_TOKEN) {
+            Log.w(TAG, "Ignoring command without a valid token: " + intent.getAction());
+            sessionHandler.post(() -> rejectCommand(startId));
+            return START_STICKY;
+        }
+
+        long traced = Tracer.begin("service.onStartCommand");
+        String action = intent.getAction();
+        Bundle extras = intent.getExtras() != null ? intent.getExtras() : Bundle.EMPTY;
+        long sentAt = extras.getLong(EXTRA_SENT_AT, 0L);
+        sessionHandler.post(() -> {
+            dispatch(action, extras, sentAt);
+            if (sentAt > 0) {
+                recordCommand(action, sentAt, intentLatency);
+            }
+            recordStart(sentAt > 0 ? sentAt : createdAt);
+        });
+        Tracer.end("service.onStartCommand", action, traced);
+
+        return START_STICKY;
+    }
+
+    // Сервис экспортирован ради MediaBrowser, поэтому startForegroundService может прийти от чужого
+    // приложения. Без startForeground система уронила бы процесс (ForegroundServiceDidNotStartInTimeException):
+    // выходим в foreground с заглушкой и сразу снимаем её, а незапущенную сессию останавливаем
+    private void rejectCommand(int startId) {
+        if (isForeground) return;
+        Notification placeholder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .build();
+        try {
+            startForeground(NOTIFICATION_ID, placeholder);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Cannot start foreground: " + e.getMessage());
+        }
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        if (!initialized) {
+            stopSelf(startId);
+        }
+    }
+
+    // Прямой канал от плагина через LocalBinder, без ActivityManager и startForegroundService
+    void submitCommand(String action, Bundle extras) {
+        if (commandQueue.offer(action, extras, SystemClock.elapsedRealtimeNanos())) {
+            sessionHandler.post(drainCommands);
+        }
+    }
+
+    boolean isAcceptingCommands() {
+        return acceptingCommands;
+    }
+
+    private void drainCommands() {
+        CommandQueue.Command<Bundle> command;
+        while ((command = commandQueue.poll()) != null) {
+            if (!acceptingCommands) {
+                redeliver(command);
+                continue;
+            }
+            dispatch(command.action, command.payload, command.enqueuedAt);
+            recordCommand(command.action, command.enqueuedAt, directLatency);
+            recordStart(command.enqueuedAt);
+        }
+    }
+
+    // После stop/dismiss этот экземпляр уже остановлен: команды, поставленные следом в той же пачке
+    // (stop → init), уходят холодным стартом в новый экземпляр, а не в сессию, которая сейчас умрёт
+    private void redeliver(CommandQueue.Command<Bundle> command) {
+        Intent intent = new Intent(this, MediaSessionService.class)
+                .setAction(command.action)
+                .putExtras(command.payload)
+                .putExtra(EXTRA_SENT_AT, command.enqueuedAt)
+                .putExtra(EXTRA_COMMAND_TOKEN, COMMAND_TOKEN);
+        try {
+            ContextCompat.startForegroundService(this, intent);
+        } catch (IllegalStateException e) {
+            // Android 12+: из фона foreground-сервис не запустить — так же, как и плагину
+            Log.w(TAG, "Cannot redeliver " + command.action + ": " + e.getMessage());
+        }
+    }
+
+    // Ожидание в очереди (от вызова в мосте) и сама обработка — отдельными отрезками
+    private void dispatch(String action, Bundle extras, long sentAt) {
+        Tracer.span("command.queue", action, sentAt);
+        long traced = Tracer.begin("command.handle");
+        try {
+            handleCommand(action, extras);
+        } finally {
+            Tracer.end("command.handle", action, traced);
+        }
+    }
+
+    private void handleCommand(String action, Bundle extras) {
+        boolean fromController = !extras.getBoolean(EXTRA_FROM_PLUGIN, false);
+        long now = SystemClock.elapsedRealtime();
+        switch (action) {
+            case ACTION_INIT: {
+                if (warm) {
+                    exitWarm();
+                    pendingStartKind = 2;
+                } else if (!initialized) {
+                    pendingStartKind = 1;
+                }
+                initialized = true;
+                warmTimeoutMs = Math.max(0L, extras.getLong("warmTimeout", 0L));
+                // В нативном режиме состояние и позиция принадлежат плееру, а не JS
+                boolean isNative = isNative();
+                boolean playing = isNative ? nativePlayer.isPlayWhenReady() : extras.getBoolean("isPlaying", false);
+                long position = isNative ? nativePlayer.getPosition() : extras.getLong("position", 0L);
+                transition(s -> s
+                        .withMetadata(extras.getString("title"), extras.getString("artist"),
+                                extras.getString("album"), extras.getString("cover"),
+                                extras.getLong("duration", 0L))
+                        .withPlaying(playing, now)
+                        .withPosition(position, now)
+                        .withTargetPage(extras.getString("targetPage"))
+                        .withArtworkOptions(
+                                ArtworkSizing.clampTargetSize(extras.getInt("artworkSize", 0)),
+                                extras.getBoolean("artworkRgb565", false),
+                                extras.getBoolean("progressiveArtwork", true)));
+                notificationScheduler.setMaxRate(
+                        extras.getFloat("notificationMaxRate", NotificationScheduler.DEFAULT_MAX_RATE));
+                setProgressInterval(extras.getLong("progressInterval", 0L));
+                setDiagnosticsInterval(extras.getLong("diagnosticsInterval", 0L));
                 updateMetadata();
                 updateState();
-                showNotification();
+                scheduleNotification();
                 break;
+            }
             case ACTION_PLAY: 
-                isInternalCall = true;
-                mediaSession.getController().getTransportControls().play();
-                isInternalCall = false;
+                play(fromController);
                 break;
             case ACTION_PAUSE: 
-                isInternalCall = true;
-                mediaSession.getController().getTransportControls().pause();
-                isInternalCall = false;
+                pause(fromController);
                 break;
             case ACTION_STOP: 
-                isInternalCall = true;
+                notificationScheduler.cancel();
+                if (warmTimeoutMs > 0) {
+                    enterWarm();
+                    break;
+                }
+                forgetSession();
+                acceptingCommands = false;
                 stopSelf();
-                // mediaSession.getController().getTransportControls().stop();
-                isInternalCall = false;
                 break;
             case ACTION_NEXT: 
-                isInternalCall = true;
-                mediaSession.getController().getTransportControls().skipToNext();
-                isInternalCall = false;
+                skipToNext();
                 break;
             case ACTION_PREV: 
-                isInternalCall = true;
-                mediaSession.getController().getTransportControls().skipToPrevious();
-                isInternalCall = false;
+                skipToPrevious();
                 break;
             case ACTION_SEEK_TO:
-                isInternalCall = true;
-                long pos = intent.getLongExtra("position", 0L);
-                mediaSession.getController().getTransportControls().seekTo(pos);
-                isInternalCall = false;
+                seekTo(extras.getLong("position", 0L));
                 break;
             case ACTION_UPDATE_METADATA:
-                title = intent.getStringExtra("title");
-                artist = intent.getStringExtra("artist");
-                album = intent.getStringExtra("album");
-                cover = intent.getStringExtra("cover");
-                duration = intent.getLongExtra("duration", 0L);
+                transition(s -> s
+                        .withMetadata(extras.getString("title"), extras.getString("artist"),
+                                extras.getString("album"), extras.getString("cover"),
+                                extras.getLong("duration", 0L))
+                        .withArtworkOptions(
+                                ArtworkSizing.clampTargetSize(extras.getInt("artworkSize", 0)),
+                                extras.getBoolean("artworkRgb565", false),
+                                extras.getBoolean("progressiveArtwork", true)));
                 updateMetadata();
-                showNotification();
+                scheduleNotification();
                 break;
             case ACTION_UPDATE_PLAYBACK_STATE:
-                String state = intent.getStringExtra("state");
-                position = intent.getLongExtra("position", 0L);
-                float playbackSpeed = intent.getFloatExtra("playbackSpeed", 1.0f);
-                if ("playing".equals(state)) {
-                    isPlaying = true;
-                } else if ("paused".equals(state)) {
-                    isPlaying = false;
-                } else if ("stopped".equals(state)) {
-                    isPlaying = false;
+                if (isNative()) {
+                    // Из JS принимаем только скорость: состояние и позицию ведёт нативный плеер
+                    float speed = extras.getFloat("playbackSpeed", 1.0f);
+                    nativePlayer.setSpeed(speed);
+                    transition(s -> s.withPlaybackSpeed(speed, now));
+                } else {
+                    transition(s -> s
+                            .withStateName(extras.getString("state"), now)
+                            .withPlaybackSpeed(extras.getFloat("playbackSpeed", 1.0f), now)
+                            .withPosition(extras.getLong("position", 0L), now));
                 }
                 updateState();
-                showNotification();
+                scheduleNotification();
+                break;
+            case ACTION_APPLY_STATE:
+                applyState(extras);
+                break;
+            case ACTION_SET_PROGRESS_INTERVAL:
+                setProgressInterval(extras.getLong("interval", 0L));
+                break;
+            case ACTION_SET_DIAGNOSTICS_INTERVAL:
+                setDiagnosticsInterval(extras.getLong("interval", 0L));
+                break;
+            case ACTION_SET_QUEUE:
+                setQueue(extras);
+                break;
+            case ACTION_SET_SOURCE:
+                setSource(extras.getString("src"), extras.getLong("position", 0L),
+                        extras.getBoolean("autoplay", false));
+                break;
+            case ACTION_CLEAR_SOURCE:
+                clearSource();
                 break;
+            case ACTION_PROVIDE_BROWSE_CHILDREN: {
+                ArrayList<Bundle> items = extras.getParcelableArrayList("items");
+                browseTree.complete(extras.getInt("requestId", -1),
+                        BrowseTree.toMediaItems(items != null ? items : new ArrayList<Bundle>()));
+                break;
+            }
+            case ACTION_INVALIDATE_BROWSE_CHILDREN: {
+                String parentId = extras.getString("parentId");
+                browseTree.invalidate(parentId);
+                notifyChildrenChanged(parentId != null ? parentId : BrowseTree.ROOT_ID);
+                break;
+            }
+            case ACTION_SET_ACTIVE_QUEUE_ITEM: {
+                int index = extras.containsKey("id")
+                        ? queue.indexOf(extras.getString("id"))
+                        : extras.getInt("index", -1);
+                activateQueueItem(index);
+                if (!isForeground) scheduleNotification();
+                break;
+            }
             // case ACTION_OPEN_APP:
 
             //     JSObject eventData = new JSObject();
@@ -223,96 +507,834 @@ public class MediaSessionService extends Service {
             //     break;
             case ACTION_DISMISS:
                 isDismissing = true;
+                notificationScheduler.cancel();
                 if (mediaSession != null) {
                     mediaSession.setActive(false);
                 }
                 MediaSessionControlPlugin.sendEvent("notificationDismissed", null);
+                if (warmTimeoutMs > 0) {
+                    enterWarm();
+                    break;
+                }
+                forgetSession();
+                acceptingCommands = false;
                 stopSelf();
                 break;
         }
+    }
 
-        return START_STICKY;
+    // emitEvent — команда пришла от контроллера (кнопки, уведомление), а не из JS
+    private void play(boolean emitEvent) {
+        // Контроллер (Android Auto, кнопки) может возобновить тёплую сессию и без init
+        if (warm) {
+            exitWarm();
+        }
+        if (isNative()) {
+            if (!nativePlayer.play()) {
+                // Фокус не дали — сессия остаётся на паузе, JS узнаёт об этом событием pause
+                SessionState s = transition(current -> current.withPlaying(false, SystemClock.elapsedRealtime()));
+                updateState();
+                MediaSessionControlPlugin.sendEvent("pause", s.position);
+                scheduleNotification();
+                return;
+            }
+            syncNativePosition();
+        }
+        SessionState s = transition(current -> current.withPlaying(true, SystemClock.elapsedRealtime()));
+        updateState();
+        if (emitEvent) {
+            MediaSessionControlPlugin.sendEvent("play", s.position);
+        }
+        scheduleNotification();
+    }
+
+    private void pause(boolean emitEvent) {
+        if (mediaSession != null && mediaSession.isActive()) {
+            if (isNative()) {
+                nativePlayer.pause();
+            }
+            SessionState s = transition(current -> current.withPlaying(false, SystemClock.elapsedRealtime()));
+            if (isNative()) {
+                s = syncNativePosition();
+            }
+            updateState();
+            if (emitEvent) {
+                MediaSessionControlPlugin.sendEvent("pause", s.position);
+            }
+            scheduleNotification();
+        } else if (emitEvent && mediaSession != null) {
+            // Если MediaSession неактивна, отправляем stop вместо pause
+            MediaSessionControlPlugin.sendEvent("stop", currentPosition());
+        }
+    }
+
+    private void seekTo(long pos) {
+        if (isNative()) {
+            nativePlayer.seekTo(pos);
+        }
+        transition(s -> s.withPosition(pos, SystemClock.elapsedRealtime()));
+        MediaSessionControlPlugin.sendEvent("seekTo", pos);
+        updateState();
+    }
+
+    // Сессия, плеер, кэши, пул и канал уведомлений остаются; уходит только уведомление и foreground
+    private void enterWarm() {
+        if (isNative()) {
+            nativePlayer.pause();
+        }
+        long now = SystemClock.elapsedRealtime();
+        SessionState s = transition(current -> current.withPlaying(false, now));
+        cancelProgressTick();
+        artworkLoader.cancel();
+        stateBuilder.setState(PlaybackStateCompat.STATE_STOPPED, s.position, 0f, now);
+        mediaSession.setPlaybackState(stateBuilder.build());
+        mediaSession.setActive(false);
+        stateDiffer.invalidateAll();
+        if (isForeground) {
+            ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+            isForeground = false;
+        }
+        warm = true;
+        sessionHandler.postDelayed(warmExpired, warmTimeoutMs);
+    }
+
+    private void exitWarm() {
+        warm = false;
+        sessionHandler.removeCallbacks(warmExpired);
+        mediaSession.setActive(true);
+    }
+
+    private void onWarmExpired() {
+        if (!warm) return;
+        forgetSession();
+        acceptingCommands = false;
+        stopSelf();
+    }
+
+    private void restoreSession() {
+        if (initialized) return;
+        SessionStore.Snapshot snapshot = sessionStore.load();
+        if (snapshot == null) return;
+        initialized = true;
+        transition(s -> snapshot.state);
+        artworkCache.restoreThumbnail(snapshot.state.cover, snapshot.thumbnail);
+        updateMetadata();
+        updateState();
+        scheduleNotification();
+        Log.d(TAG, "Session restored in " + (SystemClock.elapsedRealtimeNanos() - createdAt) / 1000000L + " ms");
+    }
+
+    // Снимок пишется с задержкой: серия изменений (и позиция при каждом обновлении) даёт одну запись
+    private void persistSoon() {
+        if (persistScheduled || !initialized) return;
+        persistScheduled = true;
+        sessionHandler.postDelayed(persist, PERSIST_DELAY_MS);
+    }
+
+    private void persistNow() {
+        persistScheduled = false;
+        SessionState s = state.get();
+        sessionStore.save(s, artworkCache.getThumbnail(s.cover));
+    }
+
+    // Сессию завершил пользователь — после перезапуска её восстанавливать не нужно
+    private void forgetSession() {
+        sessionHandler.removeCallbacks(persist);
+        persistScheduled = false;
+        sessionStore.clear();
+    }
+
+    // Время от вызова в мосте до конца обработки, включая setPlaybackState; play/pause — отдельно
+    private void recordCommand(String action, long startedAt, LatencyStats channel) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startedAt;
+        channel.record(elapsed);
+        if (ACTION_PLAY.equals(action) || ACTION_PAUSE.equals(action)) {
+            transportLatency.record(elapsed);
+        }
+    }
+
+    private void recordStart(long startedAt) {
+        if (pendingStartKind == 0) return;
+        long elapsed = SystemClock.elapsedRealtimeNanos() - startedAt;
+        if (pendingStartKind == 1) {
+            coldStarts.record(elapsed);
+        } else {
+            warmStarts.record(elapsed);
+        }
+        pendingStartKind = 0;
+    }
+
+    private boolean isNative() {
+        return nativePlayer != null && nativePlayer.getSource() != null;
+    }
+
+    // Снимок сверяется с реальной позицией плеера, экстраполяция дальше идёт от неё
+    private SessionState syncNativePosition() {
+        long position = nativePlayer.getPosition();
+        return transition(s -> s.withPosition(position, SystemClock.elapsedRealtime()));
+    }
+
+    private void setSource(String src, long position, boolean autoplay) {
+        if (src == null || src.isEmpty()) {
+            clearSource();
+            return;
+        }
+        if (nativePlayer == null) {
+            nativePlayer = new NativePlayer(this, sessionHandler, playerListener);
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!nativePlayer.setSource(src, position, autoplay)) {
+            transition(s -> s.withPlaying(false, now));
+            updateState();
+            JSObject data = new JSObject();
+            data.put("src", src);
+            MediaSessionControlPlugin.sendEvent("error", data);
+            return;
+        }
+        transition(s -> s.withPlaying(autoplay, now).withPosition(position, now));
+        updateState();
+        scheduleNotification();
+    }
+
+    private void clearSource() {
+        if (nativePlayer == null) return;
+        nativePlayer.release();
+        transition(s -> s.withPlaying(false, SystemClock.elapsedRealtime()));
+        updateState();
+        scheduleNotification();
+    }
+
+    // Колбэки плеера приходят на поток сессии
+    private final NativePlayer.Listener playerListener = new NativePlayer.Listener() {
+        @Override
+        public void onPlayerPrepared(long duration) {
+            long position = nativePlayer.getPosition();
+            long now = SystemClock.elapsedRealtime();
+            transition(s -> (duration > 0 ? s.withDuration(duration) : s).withPosition(position, now));
+            updateMetadata();
+            updateState();
+        }
+
+        @Override
+        public void onPlayerCompleted() {
+            SessionState s = transition(current ->
+                    current.withPlaying(false, SystemClock.elapsedRealtime()));
+            MediaSessionControlPlugin.sendEvent("ended", s.position);
+            // В очереди с нативными источниками следующий трек включается без участия JS
+            PlaybackQueue.Item next = queue.get(queue.nextIndex());
+            if (next != null && next.src != null && !next.src.isEmpty()) {
+                transition(current -> current.withPlaying(true, SystemClock.elapsedRealtime()));
+                skipToNext();
+                return;
+            }
+            updateState();
+            scheduleNotification();
+        }
+
+        @Override
+        public void onPlayerError(int what, int extra) {
+            transition(s -> s.withPlaying(false, SystemClock.elapsedRealtime()));
+            updateState();
+            scheduleNotification();
+            JSObject data = new JSObject();
+            data.put("what", what);
+            data.put("extra", extra);
+            MediaSessionControlPlugin.sendEvent("error", data);
+        }
+
+        @Override
+        public void onPlayerPausedBySystem() {
+            transition(s -> s.withPlaying(false, SystemClock.elapsedRealtime()));
+            SessionState s = syncNativePosition();
+            updateState();
+            scheduleNotification();
+            MediaSessionControlPlugin.sendEvent("pause", s.position);
+        }
+
+        @Override
+        public void onPlayerResumedBySystem() {
+            SessionState s = transition(current -> current.withPlaying(true, SystemClock.elapsedRealtime()));
+            updateState();
+            scheduleNotification();
+            MediaSessionControlPlugin.sendEvent("play", s.position);
+        }
+    };
+
+    // С очередью переход делает сам сервис (метаданные и обложка уже в памяти), JS получает
+    // то же событие next/previous с индексом и id нового элемента. Без очереди — как раньше
+    private void skipToNext() {
+        if (activateQueueItem(queue.nextIndex())) {
+            MediaSessionControlPlugin.sendEvent("next", describeQueueItem());
+        } else {
+            MediaSessionControlPlugin.sendEvent("next", null);
+        }
+    }
+
+    private void skipToPrevious() {
+        if (activateQueueItem(queue.previousIndex())) {
+            MediaSessionControlPlugin.sendEvent("previous", describeQueueItem());
+        } else {
+            MediaSessionControlPlugin.sendEvent("previous", null);
+        }
+    }
+
+    private void setQueue(Bundle extras) {
+        List<PlaybackQueue.Item> items = new ArrayList<>();
+        ArrayList<Bundle> bundles = extras.getParcelableArrayList("items");
+        if (bundles != null) {
+            for (int i = 0; i < bundles.size(); i++) {
+                Bundle b = bundles.get(i);
+                String id = b.getString("id");
+                items.add(new PlaybackQueue.Item(
+                        id != null ? id : String.valueOf(i),
+                        b.getString("title", ""), b.getString("artist", ""), b.getString("album", ""),
+                        b.getString("cover", ""), b.getLong("duration", 0L), b.getString("src", "")));
+            }
+        }
+        prefetchDistance = Math.max(0, Math.min(MAX_PREFETCH_DISTANCE, extras.getInt("prefetch", 1)));
+        queue = PlaybackQueue.of(items);
+        publishedQueueStart = -1;
+
+        int activeIndex = extras.getInt("activeIndex", -1);
+        if (!activateQueueItem(activeIndex)) {
+            publishQueue();
+            stateBuilder.setActiveQueueItemId(MediaSessionCompat.QueueItem.UNKNOWN_ID);
+            stateDiffer.invalidateAll();
+            updateState();
+        }
+        if (!isForeground) scheduleNotification();
+    }
+
+    // Переход на элемент очереди: метаданные из очереди, позиция с нуля, обложка — из прогретого кэша
+    private boolean activateQueueItem(int index) {
+        PlaybackQueue q = queue;
+        PlaybackQueue.Item item = q.get(index);
+        if (item == null || mediaSession == null) return false;
+        queue = q.withActiveIndex(index);
+
+        long now = SystemClock.elapsedRealtime();
+        SessionState s = transition(current -> current
+                .withMetadata(item.title, item.artist, item.album, item.cover, item.duration)
+                .withPosition(0L, now));
+        if (item.src != null && !item.src.isEmpty()) {
+            setSource(item.src, 0L, s.playing);
+        }
+        publishQueue();
+        stateBuilder.setActiveQueueItemId(index);
+        // Активный элемент не входит в сравнение StateDiffer — публикуем состояние принудительно
+        stateDiffer.invalidateAll();
+        updateMetadata();
+        updateState();
+        // Смена трека видна пользователю — уведомление без ограничителя частоты
+        if (!warm) {
+            notificationScheduler.request(true);
+        }
+        prefetchNeighbors();
+        return true;
+    }
+
+    private void prefetchNeighbors() {
+        SessionState s = state.get();
+        for (PlaybackQueue.Item neighbor : queue.neighbors(prefetchDistance)) {
+            artworkLoader.prefetch(neighbor.cover, s.artworkSize, s.artworkRgb565);
+        }
+    }
+
+    // Публикуем окно очереди; большое окно переотправляется, только когда активный элемент из него выходит
+    private void publishQueue() {
+        PlaybackQueue q = queue;
+        if (q.isEmpty()) {
+            mediaSession.setQueue(null);
+            publishedQueueStart = -1;
+            return;
+        }
+        int start = q.windowStart(MAX_PUBLISHED_QUEUE);
+        int active = q.getActiveIndex();
+        if (publishedQueueStart >= 0 && (q.size() <= MAX_PUBLISHED_QUEUE
+                || (active >= publishedQueueStart && active < publishedQueueStart + MAX_PUBLISHED_QUEUE))) {
+            return;
+        }
+        int end = Math.min(q.size(), start + MAX_PUBLISHED_QUEUE);
+        List<MediaSessionCompat.QueueItem> published = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            PlaybackQueue.Item item = q.get(i);
+            MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                    .setMediaId(item.id)
+                    .setTitle(item.title)
+                    .setSubtitle(item.artist)
+                    .setDescription(item.album)
+                    .build();
+            published.add(new MediaSessionCompat.QueueItem(description, i));
+        }
+        mediaSession.setQueue(published);
+        publishedQueueStart = start;
+    }
+
+    private JSObject describeQueueItem() {
+        PlaybackQueue q = queue;
+        PlaybackQueue.Item item = q.getActive();
+        JSObject ret = new JSObject();
+        ret.put("index", q.getActiveIndex());
+        ret.put("id", item != null ? item.id : null);
+        return ret;
+    }
+
+    private SessionState transition(Transition transition) {
+        while (true) {
+            SessionState current = state.get();
+            SessionState next = transition.apply(current);
+            if (current == next || state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Согласованный снимок для любого потока (getState, диагностика, загрузчик обложек)
+    SessionState getSessionState() {
+        return state.get();
+    }
+
+    // Любое подмножество метаданных и состояния за один проход: один setMetadata,
+    // один setPlaybackState и не больше одного обновления уведомления
+    private void applyState(Bundle extras) {
+        long now = SystemClock.elapsedRealtime();
+        boolean metadataChanged = extras.containsKey("title") || extras.containsKey("artist")
+                || extras.containsKey("album") || extras.containsKey("cover") || extras.containsKey("duration");
+        boolean stateChanged = extras.containsKey("state") || extras.containsKey("position")
+                || extras.containsKey("playbackSpeed");
+        boolean targetPageChanged = extras.containsKey("targetPage");
+        boolean isNative = isNative();
+        if (isNative && extras.containsKey("playbackSpeed")) {
+            nativePlayer.setSpeed(extras.getFloat("playbackSpeed", 1.0f));
+        }
+
+        transition(current -> {
+            SessionState s = current;
+            if (extras.containsKey("title")) s = s.withTitle(extras.getString("title"));
+            if (extras.containsKey("artist")) s = s.withArtist(extras.getString("artist"));
+            if (extras.containsKey("album")) s = s.withAlbum(extras.getString("album"));
+            if (extras.containsKey("cover")) s = s.withCover(extras.getString("cover"));
+            if (extras.containsKey("duration")) s = s.withDuration(extras.getLong("duration", 0L));
+            if (extras.containsKey("artworkSize") || extras.containsKey("artworkRgb565")
+                    || extras.containsKey("progressiveArtwork")) {
+                s = s.withArtworkOptions(
+                        extras.containsKey("artworkSize")
+                                ? ArtworkSizing.clampTargetSize(extras.getInt("artworkSize", 0)) : s.artworkSize,
+                        extras.getBoolean("artworkRgb565", s.artworkRgb565),
+                        extras.getBoolean("progressiveArtwork", s.progressiveArtwork));
+            }
+            // Состояние и скорость сами фиксируют набежавшую позицию; в нативном режиме их ведёт плеер
+            if (extras.containsKey("state") && !isNative) s = s.withStateName(extras.getString("state"), now);
+            if (extras.containsKey("playbackSpeed")) {
+                s = s.withPlaybackSpeed(extras.getFloat("playbackSpeed", 1.0f), now);
+            }
+            if (extras.containsKey("position") && !isNative) {
+                s = s.withPosition(extras.getLong("position", 0L), now);
+            }
+            if (targetPageChanged) s = s.withTargetPage(extras.getString("targetPage"));
+            return s;
+        });
+
+        if (metadataChanged) {
+            updateMetadata();
+        }
+        if (stateChanged) {
+            updateState();
+        }
+        if (metadataChanged || stateChanged || targetPageChanged || !isForeground) {
+            scheduleNotification();
+        }
+    }
+
+    private void setProgressInterval(long intervalMs) {
+        long interval = intervalMs > 0 ? Math.max(MIN_PROGRESS_INTERVAL_MS, intervalMs) : 0L;
+        if (interval != progressIntervalMs) {
+            progressIntervalMs = interval;
+            cancelProgressTick();
+        }
+        updateProgressTicker();
+    }
+
+    long currentPosition() {
+        return state.get().positionAt(SystemClock.elapsedRealtime());
+    }
+
+    // Вызывается из каждого updateState: уже запланированный тик не переставляем, иначе частые
+    // updatePlaybackState / seekTo (timeupdate раз в 250 мс) откладывали бы progress бесконечно
+    private void updateProgressTicker() {
+        if (progressIntervalMs > 0 && state.get().playing) {
+            if (!progressTickScheduled) {
+                progressTickScheduled = true;
+                sessionHandler.postDelayed(progressTick, progressIntervalMs);
+            }
+        } else {
+            cancelProgressTick();
+        }
+    }
+
+    private void cancelProgressTick() {
+        sessionHandler.removeCallbacks(progressTick);
+        progressTickScheduled = false;
+    }
+
+    private void onProgressTick() {
+        progressTickScheduled = false;
+        if (progressIntervalMs <= 0 || !state.get().playing) return;
+        if (isNative()) {
+            syncNativePosition();
+        }
+        MediaSessionControlPlugin.sendEvent("progress", currentPosition());
+        progressTickScheduled = true;
+        sessionHandler.postDelayed(progressTick, progressIntervalMs);
+    }
+
+    private void setDiagnosticsInterval(long intervalMs) {
+        diagnosticsIntervalMs = intervalMs > 0 ? Math.max(MIN_DIAGNOSTICS_INTERVAL_MS, intervalMs) : 0L;
+        sessionHandler.removeCallbacks(diagnosticsTick);
+        if (diagnosticsIntervalMs > 0) {
+            sessionHandler.postDelayed(diagnosticsTick, diagnosticsIntervalMs);
+        }
+    }
+
+    private void onDiagnosticsTick() {
+        if (diagnosticsIntervalMs <= 0) return;
+        MediaSessionControlPlugin.sendEvent("diagnostics", describeDiagnostics());
+        sessionHandler.postDelayed(diagnosticsTick, diagnosticsIntervalMs);
+    }
+
+    // Счётчики читаются на потоке сессии — там же, где пишутся; false — поток уже остановлен
+    boolean requestDiagnostics(DiagnosticsCallback callback) {
+        return sessionHandler.post(() -> callback.onDiagnostics(describeDiagnostics()));
+    }
+
+    // Объекты собираются только по запросу; на горячем пути — только атомарные счётчики
+    private JSObject describeDiagnostics() {
+        long uptimeMs = (SystemClock.elapsedRealtimeNanos() - createdAt) / 1000000L;
+        JSObject ret = new JSObject();
+        ret.put("serviceRunning", true);
+        ret.put("uptimeMs", uptimeMs);
+
+        JSObject commands = new JSObject();
+        commands.put("intent", describeLatency(intentLatency));
+        commands.put("direct", describeLatency(directLatency));
+        commands.put("transport", describeLatency(transportLatency));
+        commands.put("collapsed", commandQueue.getCollapsed());
+        ret.put("commands", commands);
+
+        JSObject starts = new JSObject();
+        starts.put("cold", describeLatency(coldStarts));
+        starts.put("warm", describeLatency(warmStarts));
+        ret.put("starts", starts);
+
+        JSObject notification = new JSObject();
+        long posted = notificationScheduler.getPosted();
+        notification.put("posted", posted);
+        notification.put("postedPerMinute", uptimeMs > 0 ? posted * 60000.0 / uptimeMs : 0.0);
+        notification.put("coalesced", notificationScheduler.getCoalesced());
+        notification.put("skipped", stateDiffer.getSkippedNotification());
+        notification.put("build", describeLatency(notificationLatency));
+        ret.put("notification", notification);
+
+        JSObject session = new JSObject();
+        session.put("skippedMetadata", stateDiffer.getSkippedMetadata());
+        session.put("skippedState", stateDiffer.getSkippedState());
+        ret.put("session", session);
+
+        JSObject artwork = new JSObject();
+        artwork.put("memoryHits", artworkCache.getMemoryHits());
+        artwork.put("diskHits", artworkCache.getDiskHits());
+        artwork.put("revalidations", artworkCache.getRevalidations());
+        artwork.put("misses", artworkCache.getMisses());
+        artwork.put("failures", artworkCache.getFailures());
+        artwork.put("localLoads", artworkCache.getLocalLoads());
+        artwork.put("memoryBytes", artworkCache.getMemorySize());
+        artwork.put("fetch", describeLatency(artworkCache.getFetchLatency()));
+        artwork.put("decode", describeLatency(artworkCache.getDecodeLatency()));
+        artwork.put("loadsStarted", artworkLoader.getStarted());
+        artwork.put("loadsDeduplicated", artworkLoader.getDeduplicated());
+        artwork.put("loadsCancelled", artworkLoader.getCancelled());
+        artwork.put("resultsDropped", artworkLoader.getDropped());
+        artwork.put("loadsRejected", artworkLoader.getRejected());
+        artwork.put("prefetched", artworkLoader.getPrefetched());
+        artwork.put("loadsInFlight", artworkLoader.getInFlight());
+        ret.put("artwork", artwork);
+
+        JSObject memory = new JSObject();
+        memory.put("publishedArtworkBytes", publishedArtwork != null ? publishedArtwork.getAllocationByteCount() : 0);
+        memory.put("cacheBytes", artworkCache.getMemorySize());
+        memory.put("cacheMaxBytes", artworkCache.getMemoryMaxSize());
+        memory.put("thumbnailBytes", artworkCache.getThumbnailBytes());
+        memory.put("poolBytes", artworkCache.getPool().getBytes());
+        memory.put("poolHits", artworkCache.getPool().getHits());
+        memory.put("poolMisses", artworkCache.getPool().getMisses());
+        memory.put("trims", trims);
+        memory.put("lastTrimLevel", lastTrimLevel);
+        ret.put("memory", memory);
+
+        JSObject browse = new JSObject();
+        browse.put("cacheHits", browseTree.getCache().getHits());
+        browse.put("cacheMisses", browseTree.getCache().getMisses());
+        browse.put("cachedItems", browseTree.getCache().getItemCount());
+        browse.put("timeouts", browseTree.getTimedOut());
+        ret.put("browse", browse);
+
+        JSObject snapshot = new JSObject();
+        snapshot.put("writes", sessionStore.getWrites());
+        snapshot.put("coalesced", sessionStore.getCoalesced());
+        ret.put("snapshot", snapshot);
+
+        ret.put("events", MediaSessionControlPlugin.describeEventDiagnostics());
+        return ret;
+    }
+
+    private static JSObject describeLatency(LatencyStats stats) {
+        JSObject ret = new JSObject();
+        ret.put("count", stats.getCount());
+        ret.put("avgUs", stats.getAverageMicros());
+        ret.put("p50Us", stats.getPercentileMicros(0.50));
+        ret.put("p95Us", stats.getPercentileMicros(0.95));
+        ret.put("p99Us", stats.getPercentileMicros(0.99));
+        ret.put("maxUs", stats.getMaxMicros());
+        return ret;
+    }
+
+    JSObject describeState() {
+        SessionState s = state.get();
+        JSObject ret = new JSObject();
+        ret.put("title", s.title);
+        ret.put("artist", s.artist);
+        ret.put("album", s.album);
+        ret.put("cover", s.cover);
+        ret.put("duration", s.duration);
+        ret.put("position", s.positionAt(SystemClock.elapsedRealtime()));
+        ret.put("state", s.stateName());
+        ret.put("playbackSpeed", s.playbackSpeed);
+        ret.put("targetPage", s.targetPage);
+        ret.put("activeQueueIndex", queue.getActiveIndex());
+        NativePlayer player = nativePlayer;
+        ret.put("nativeSource", player != null ? player.getSource() : null);
+        return ret;
     }
 
     private void updateState() {
         if (stateBuilder != null && mediaSession != null) {
-            int state = isPlaying ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
-            stateBuilder.setState(state, position, 1.0f);
+            updateProgressTicker();
+            SessionState s = state.get();
+            long now = SystemClock.elapsedRealtime();
+            if (!stateDiffer.stateChanged(s.playing, s.positionAt(now), s.playbackSpeed, now)) return;
+            persistSoon();
+            int playbackState = s.playing ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
+            // Время обновления и скорость позволяют системе самой экстраполировать позицию
+            stateBuilder.setState(playbackState, s.position, s.playbackSpeed, s.positionUpdatedAt);
             mediaSession.setPlaybackState(stateBuilder.build());
         }
     }
 
     private void updateMetadata() {
         if (mediaSession == null) return;
-        
-        MediaMetadataCompat.Builder metaBuilder = new MediaMetadataCompat.Builder()
-                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
-                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
-                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration);
-                
-        // Загружаем обложку асинхронно
-        if (cover != null && !cover.isEmpty()) {
-            executor.execute(() -> {
-                Bitmap bitmap = getBitmapFromUrl(cover);
-                if (bitmap != null) {
-                    metaBuilder.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, bitmap);
-                }
-                mediaSession.setMetadata(metaBuilder.build());
-            });
-        } else {
-            mediaSession.setMetadata(metaBuilder.build());
+        SessionState s = state.get();
+        String cover = s.cover;
+        if (!stateDiffer.metadataChanged(s.title, s.artist, s.album, cover, s.duration,
+                s.artworkSize, s.artworkRgb565)) return;
+        persistSoon();
+
+        MediaMetadataCompat.Builder metaBuilder = metadataBuilder(s);
+
+        // Обложка уже в памяти — публикуем сразу, без загрузчика и сети
+        Bitmap cached = artworkCache.getFromMemory(cover, s.artworkSize, s.artworkRgb565);
+        if (cached != null) {
+            artworkLoader.cancel();
+            publishMetadata(metaBuilder, cached);
+            return;
+        }
+
+        if (cover == null || cover.isEmpty()) {
+            artworkLoader.cancel();
+            publishMetadata(metaBuilder, null);
+            return;
+        }
+
+        // Текст публикуем сразу (с миниатюрой, если она есть), полная обложка подставится позже
+        if (s.progressiveArtwork) {
+            publishMetadata(metaBuilder, artworkCache.getThumbnail(cover));
         }
+
+        // Загружаем обложку асинхронно; устаревшие результаты загрузчик не публикует
+        boolean progressive = s.progressiveArtwork;
+        artworkLoader.load(cover, s.artworkSize, s.artworkRgb565, (token, bitmap) -> sessionHandler.post(() -> {
+            if (mediaSession == null || !artworkLoader.isCurrent(token)) return;
+            if (bitmap == null) {
+                stateDiffer.invalidateMetadata();
+                if (progressive) return;
+            }
+            publishMetadata(metaBuilder, bitmap);
+        }));
+    }
+
+    private static MediaMetadataCompat.Builder metadataBuilder(SessionState s) {
+        return new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, s.title)
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, s.artist)
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, s.album)
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, s.duration);
+    }
+
+    private void publishMetadata(MediaMetadataCompat.Builder builder, Bitmap artwork) {
+        if (artwork != null) {
+            builder.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, artwork);
+        }
+        publishedArtwork = artwork;
+        mediaSession.setMetadata(builder.build());
+    }
+
+    // Вызывается на главном потоке; кэши и сессия принадлежат потоку сессии
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        sessionHandler.post(() -> trimMemory(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        sessionHandler.post(() -> trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    private void trimMemory(int level) {
+        lastTrimLevel = level;
+        int tier = trimTierFor(level);
+        if (tier == ArtworkCache.TRIM_NONE) return;
+        trims++;
+        SessionState s = state.get();
+        artworkCache.trim(tier, s.cover);
+        // Сессия держит полноразмерную обложку через MediaMetadataCompat — до смены трека заменяем её миниатюрой
+        if (tier >= ArtworkCache.TRIM_THUMBNAILS && mediaSession != null && publishedArtwork != null) {
+            Bitmap thumbnail = artworkCache.getThumbnail(s.cover);
+            if (thumbnail != null && thumbnail != publishedArtwork) {
+                publishMetadata(metadataBuilder(s), thumbnail);
+            }
+        }
+    }
+
+    private static int trimTierFor(int level) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                return ArtworkCache.TRIM_SHRINK;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                return ArtworkCache.TRIM_THUMBNAILS;
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                return ArtworkCache.TRIM_MINIMAL;
+            default:
+                // UI_HIDDEN — скрыт WebView, а не сервис; RUNNING_MODERATE — освобождать ещё рано
+                return ArtworkCache.TRIM_NONE;
+        }
+    }
+
+    // Смена play/pause и первый показ (startForeground) — сразу, остальное через ограничитель частоты
+    private void scheduleNotification() {
+        // Видимые поля уведомления не изменились — не трогаем его вовсе
+        // Тёплая сессия невидима: уведомление вернётся с init или play
+        if (warm) return;
+        SessionState s = state.get();
+        if (!stateDiffer.notificationChanged(s.title, s.artist, s.playing, s.targetPage) && isForeground) return;
+        persistSoon();
+        notificationScheduler.request(!isForeground || s.playing != notifiedPlaying);
     }
 
     private void showNotification() {
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
+        long traced = Tracer.begin("notification.show");
+        long started = SystemClock.elapsedRealtimeNanos();
+        ensureNotificationBuilder();
+        SessionState s = state.get();
+        notifiedPlaying = s.playing;
+
+        // Меняем только то, что зависит от состояния; PendingIntent и Action живут всё время сервиса
+        if (contentIntent == null || !Objects.equals(s.targetPage, contentIntentPage)) {
+            contentIntent = buildContentIntent(s.targetPage);
+            contentIntentPage = s.targetPage;
+            notificationBuilder.setContentIntent(contentIntent);
         }
+        notificationBuilder
+                .setContentTitle(s.title)
+                .setContentText(s.artist)
+                .setOngoing(s.playing)
+                .clearActions()
+                .addAction(prevAction)
+                .addAction(s.playing ? pauseAction : playAction)
+                .addAction(nextAction);
+
+        Notification notification = notificationBuilder.build();
+        if (isForeground) {
+            notificationManager.notify(NOTIFICATION_ID, notification);
+        } else {
+            long foreground = Tracer.begin("notification.startForeground");
+            try {
+                startForeground(NOTIFICATION_ID, notification);
+                isForeground = true;
+            } catch (IllegalStateException e) {
+                // Android 12+: восстановление после перезапуска в фоне может не получить права на foreground
+                Log.w(TAG, "Cannot start foreground: " + e.getMessage());
+            } finally {
+                Tracer.end("notification.startForeground", null, foreground);
+            }
+        }
+        notificationLatency.record(SystemClock.elapsedRealtimeNanos() - started);
+        Tracer.end("notification.show", null, traced);
+    }
 
-        PendingIntent playIntent = PendingIntent.getService(this, 1,
-                new Intent(this, MediaSessionService.class).setAction(ACTION_PLAY), flags);
-        PendingIntent pauseIntent = PendingIntent.getService(this, 2,
-                new Intent(this, MediaSessionService.class).setAction(ACTION_PAUSE), flags);
-        PendingIntent prevIntent = PendingIntent.getService(this, 3,
-                new Intent(this, MediaSessionService.class).setAction(ACTION_PREV), flags);
-        PendingIntent nextIntent = PendingIntent.getService(this, 4,
-                new Intent(this, MediaSessionService.class).setAction(ACTION_NEXT), flags);
-        PendingIntent deleteIntent = PendingIntent.getService(this, 5,
-            new Intent(this, MediaSessionService.class).setAction(ACTION_DISMISS), flags);
+    private void ensureNotificationBuilder() {
+        if (notificationBuilder != null) return;
 
-        // Создаем Intent для открытия MainActivity с флагом
+        PendingIntent playIntent = servicePendingIntent(1, ACTION_PLAY);
+        PendingIntent pauseIntent = servicePendingIntent(2, ACTION_PAUSE);
+        PendingIntent prevIntent = servicePendingIntent(3, ACTION_PREV);
+        PendingIntent nextIntent = servicePendingIntent(4, ACTION_NEXT);
+        PendingIntent deleteIntent = servicePendingIntent(5, ACTION_DISMISS);
+
+        playAction = new NotificationCompat.Action(android.R.drawable.ic_media_play, "Play", playIntent);
+        pauseAction = new NotificationCompat.Action(android.R.drawable.ic_media_pause, "Pause", pauseIntent);
+        prevAction = new NotificationCompat.Action(android.R.drawable.ic_media_previous, "Previous", prevIntent);
+        nextAction = new NotificationCompat.Action(android.R.drawable.ic_media_next, "Next", nextIntent);
+
+        // Intent запуска приложения ищем в PackageManager один раз
         PackageManager pm = getPackageManager();
-        Intent launchIntent = pm.getLaunchIntentForPackage(getPackageName());
+        launchIntent = pm.getLaunchIntentForPackage(getPackageName());
         if (launchIntent != null) {
             launchIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
             launchIntent.putExtra("openedFromNotification", true);
-            launchIntent.putExtra("targetPage", targetPage);
         }
-        PendingIntent contentIntent = PendingIntent.getActivity(this, 6, launchIntent, flags);
 
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(artist)
+        notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setSmallIcon(android.R.drawable.ic_media_play)
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setOngoing(isPlaying)
                 .setDeleteIntent(deleteIntent)
                 .setOnlyAlertOnce(true)
-                .setContentIntent(contentIntent)
-                .addAction(new NotificationCompat.Action(
-                        android.R.drawable.ic_media_previous, "Previous", prevIntent))
-                .addAction(isPlaying ?
-                        new NotificationCompat.Action(android.R.drawable.ic_media_pause, "Pause", pauseIntent) :
-                        new NotificationCompat.Action(android.R.drawable.ic_media_play, "Play", playIntent))
-                .addAction(new NotificationCompat.Action(
-                        android.R.drawable.ic_media_next, "Next", nextIntent))
                 .setStyle(new MediaStyle()
                         .setMediaSession(mediaSession.getSessionToken())
                         .setShowActionsInCompactView(0, 1, 2));
+    }
+
+    private PendingIntent buildContentIntent(String targetPage) {
+        if (launchIntent == null) return null;
+        launchIntent.putExtra("targetPage", targetPage);
+        return PendingIntent.getActivity(this, 6, launchIntent, pendingIntentFlags());
+    }
 
-        startForeground(NOTIFICATION_ID, builder.build());
+    private PendingIntent servicePendingIntent(int requestCode, String action) {
+        Intent intent = new Intent(this, MediaSessionService.class)
+                .setAction(action)
+                .putExtra(EXTRA_COMMAND_TOKEN, COMMAND_TOKEN);
+        return PendingIntent.getService(this, requestCode, intent, pendingIntentFlags());
+    }
+
+    private static int pendingIntentFlags() {
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return flags;
     }
 
     private void createNotificationChannel() {
@@ -329,39 +1351,88 @@ public class MediaSessionService extends Service {
     public void onTaskRemoved(Intent rootIntent) {
         super.onTaskRemoved(rootIntent);
         MediaSessionControlPlugin.sendEvent("appClosed", null);
-        stopSelf();
+        // persistScheduled и колбэк persist принадлежат потоку сессии — иначе снимок может записаться
+        // уже после clear(), и перезапуск восстановит смахнутую сессию
+        sessionHandler.post(() -> {
+            forgetSession();
+            acceptingCommands = false;
+            stopSelf();
+        });
     }
+    // MediaBrowser (Android Auto, Wear) подключается через SERVICE_INTERFACE, плагин — через LocalBinder.
+    // Сервис экспортирован: без явного действия чужое приложение держало бы привязку и не давало
+    // сервису остановиться. Binder.getCallingUid() здесь не помогает — onBind вызывается не из
+    // транзакции клиента, а с главного потока процесса
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
+        if (SERVICE_INTERFACE.equals(intent.getAction())) {
+            return super.onBind(intent);
+        }
+        if (ACTION_BIND_LOCAL.equals(intent.getAction())) {
+            return binder;
+        }
         return null;
     }
 
+    @Nullable
+    @Override
+    public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+        if (!BrowseTree.isEnabled(this)) return null;
+        if (!BrowseTree.isAllowedController(this, clientPackageName, clientUid)) {
+            Log.w(TAG, "Browse root denied to " + clientPackageName);
+            return null;
+        }
+        return new BrowserRoot(BrowseTree.ROOT_ID, null);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        browseTree.load(parentId, null, result);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result,
+                               @NonNull Bundle options) {
+        browseTree.load(parentId, options, result);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (mediaSession != null) {
-            mediaSession.setActive(false);
-            mediaSession.release();
-        }
-        if (executor != null) {
-            executor.shutdown();
+        acceptingCommands = false;
+        sessionHandler.removeCallbacks(drainCommands);
+        sessionHandler.removeCallbacks(progressTick);
+        sessionHandler.removeCallbacks(diagnosticsTick);
+        if (notificationScheduler != null) {
+            notificationScheduler.cancel();
         }
+        // Освобождаем сессию на её потоке после уже поставленных команд, отложенные задачи отбрасываются
+        // Пулы загрузчика и снимков закрываются там же: уже поставленные команды (stop → clear(),
+        // смена состояния → save()) иначе получили бы RejectedExecutionException на потоке сессии
+        MediaSessionCompat session = mediaSession;
+        NativePlayer player = nativePlayer;
+        sessionHandler.post(() -> {
+            if (artworkLoader != null) {
+                artworkLoader.shutdown();
+            }
+            if (sessionStore != null) {
+                sessionStore.shutdown();
+            }
+            if (player != null) {
+                player.release();
+            }
+            if (session != null) {
+                session.setActive(false);
+                session.release();
+            }
+        });
+        sessionThread.quitSafely();
     }
 
-    private Bitmap getBitmapFromUrl(String src) {
-        if (src == null || src.isEmpty()) return null;
-        
-        try {
-            URL url = new URL(src);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setDoInput(true);
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(10000);
-            connection.connect();
-            return BitmapFactory.decodeStream(connection.getInputStream());
-        } catch (Exception e) {
-            return null;
+    public class LocalBinder extends Binder {
+        MediaSessionService getService() {
+            return MediaSessionService.this;
         }
     }
-}
\ No newline at end of file
+}
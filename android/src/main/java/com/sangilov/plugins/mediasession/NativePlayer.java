@@ -0,0 +1,305 @@
+package com.sangilov.plugins.mediasession;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.PlaybackParams;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.PowerManager;
+
+import androidx.media.AudioAttributesCompat;
+import androidx.media.AudioFocusRequestCompat;
+import androidx.media.AudioManagerCompat;
+
+import java.io.IOException;
+
+// Нативный плеер внутри сервиса: звук не зависит от троттлинга фонового WebView.
+// Создаётся и вызывается только с потока сессии — туда же MediaPlayer доставляет свои колбэки
+final class NativePlayer implements MediaPlayer.OnPreparedListener, MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnErrorListener, AudioManager.OnAudioFocusChangeListener {
+
+    interface Listener {
+        void onPlayerPrepared(long duration);
+
+        void onPlayerCompleted();
+
+        void onPlayerError(int what, int extra);
+
+        // Потеря фокуса, отключение наушников — плеер уже на паузе, нужно обновить сессию и JS
+        void onPlayerPausedBySystem();
+
+        void onPlayerResumedBySystem();
+    }
+
+    private static final float DUCK_VOLUME = 0.2f;
+
+    private final Context context;
+    private final Handler handler;
+    private final Listener listener;
+    private final AudioManager audioManager;
+    private final AudioFocusRequestCompat focusRequest;
+
+    private MediaPlayer player;
+    private volatile String src;
+    private boolean prepared = false;
+    private boolean playWhenReady = false;
+    private long pendingSeek = -1L;
+    private float speed = 1.0f;
+    private boolean hasFocus = false;
+    private boolean resumeOnFocusGain = false;
+    private boolean noisyReceiverRegistered = false;
+
+    private final BroadcastReceiver noisyReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (AudioManager.ACTION_AUDIO_BECOMING_NOISY.equals(intent.getAction()) && isPlaying()) {
+                pause();
+                listener.onPlayerPausedBySystem();
+            }
+        }
+    };
+
+    NativePlayer(Context context, Handler handler, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.handler = handler;
+        this.listener = listener;
+        this.audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+        this.focusRequest = new AudioFocusRequestCompat.Builder(AudioManagerCompat.AUDIOFOCUS_GAIN)
+                .setAudioAttributes(new AudioAttributesCompat.Builder()
+                        .setUsage(AudioAttributesCompat.USAGE_MEDIA)
+                        .setContentType(AudioAttributesCompat.CONTENT_TYPE_MUSIC)
+                        .build())
+                .setOnAudioFocusChangeListener(this, handler)
+                .setWillPauseWhenDucked(false)
+                .build();
+    }
+
+    // Новый источник: старый MediaPlayer освобождается, подготовка асинхронная
+    boolean setSource(String src, long position, boolean autoplay) {
+        releasePlayer();
+        this.src = src;
+        this.playWhenReady = autoplay;
+        this.pendingSeek = position > 0 ? position : -1L;
+
+        player = new MediaPlayer();
+        player.setAudioAttributes(new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build());
+        player.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        try {
+            setDataSource(player, src);
+            player.prepareAsync();
+            return true;
+        } catch (IOException | IllegalArgumentException | IllegalStateException | SecurityException e) {
+            // Без плеера источника нет: иначе isNative() в сервисе игнорировал бы состояние из JS
+            release();
+            return false;
+        }
+    }
+
+    String getSource() {
+        return src;
+    }
+
+    // До подготовки только запоминаем намерение — старт произойдёт в onPrepared.
+    // false — система не дала аудиофокус (например, идёт звонок), плеер остаётся на паузе
+    boolean play() {
+        playWhenReady = true;
+        if (player == null || !prepared || player.isPlaying()) return true;
+        if (!requestFocus()) {
+            playWhenReady = false;
+            return false;
+        }
+        player.start();
+        registerNoisyReceiver();
+        return true;
+    }
+
+    void pause() {
+        playWhenReady = false;
+        resumeOnFocusGain = false;
+        if (player != null && prepared && player.isPlaying()) {
+            player.pause();
+        }
+        unregisterNoisyReceiver();
+    }
+
+    void seekTo(long position) {
+        if (player != null && prepared) {
+            player.seekTo((int) Math.max(0L, position));
+        } else {
+            pendingSeek = position;
+        }
+    }
+
+    void setSpeed(float speed) {
+        if (speed <= 0f || this.speed == speed) return;
+        this.speed = speed;
+        applySpeed();
+    }
+
+    long getPosition() {
+        if (player == null || !prepared) return Math.max(0L, pendingSeek);
+        return player.getCurrentPosition();
+    }
+
+    boolean isPlaying() {
+        return player != null && prepared && player.isPlaying();
+    }
+
+    boolean isPlayWhenReady() {
+        return playWhenReady;
+    }
+
+    void release() {
+        releasePlayer();
+        src = null;
+        abandonFocus();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if (mp != player) return;
+        prepared = true;
+        if (pendingSeek > 0) {
+            mp.seekTo((int) pendingSeek);
+        }
+        pendingSeek = -1L;
+        applySpeed();
+        listener.onPlayerPrepared(Math.max(0, mp.getDuration()));
+        if (playWhenReady && !play()) {
+            listener.onPlayerPausedBySystem();
+        }
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if (mp != player) return;
+        playWhenReady = false;
+        unregisterNoisyReceiver();
+        listener.onPlayerCompleted();
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        if (mp != player) return true;
+        release();
+        listener.onPlayerError(what, extra);
+        return true;
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_GAIN:
+                hasFocus = true;
+                if (player != null) player.setVolume(1f, 1f);
+                if (resumeOnFocusGain) {
+                    resumeOnFocusGain = false;
+                    play();
+                    listener.onPlayerResumedBySystem();
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                if (player != null) player.setVolume(DUCK_VOLUME, DUCK_VOLUME);
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                if (isPlaying()) {
+                    pause();
+                    resumeOnFocusGain = true;
+                    listener.onPlayerPausedBySystem();
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS:
+                if (isPlaying()) {
+                    pause();
+                    listener.onPlayerPausedBySystem();
+                }
+                abandonFocus();
+                break;
+        }
+    }
+
+    private void applySpeed() {
+        if (player == null || !prepared) return;
+        try {
+            boolean wasPlaying = player.isPlaying();
+            PlaybackParams params = player.getPlaybackParams().setSpeed(speed);
+            player.setPlaybackParams(params);
+            // setPlaybackParams запускает воспроизведение на паузе — возвращаем как было
+            if (!wasPlaying && player.isPlaying()) {
+                player.pause();
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // скорость не поддерживается источником
+        }
+    }
+
+    private boolean requestFocus() {
+        if (hasFocus) return true;
+        hasFocus = AudioManagerCompat.requestAudioFocus(audioManager, focusRequest)
+                == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        return hasFocus;
+    }
+
+    private void abandonFocus() {
+        if (!hasFocus) return;
+        AudioManagerCompat.abandonAudioFocusRequest(audioManager, focusRequest);
+        hasFocus = false;
+    }
+
+    private void registerNoisyReceiver() {
+        if (noisyReceiverRegistered) return;
+        context.registerReceiver(noisyReceiver, new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY), null, handler);
+        noisyReceiverRegistered = true;
+    }
+
+    private void unregisterNoisyReceiver() {
+        if (!noisyReceiverRegistered) return;
+        context.unregisterReceiver(noisyReceiver);
+        noisyReceiverRegistered = false;
+    }
+
+    private void releasePlayer() {
+        unregisterNoisyReceiver();
+        if (player != null) {
+            player.release();
+            player = null;
+        }
+        prepared = false;
+    }
+
+    // Локальные пути Capacitor WebView не отдаёт по сети — переводим их в файл, content:// или ассет.
+    // Путь без схемы ("/assets/track.mp3") — ассет веб-приложения, как и для обложек в LocalArtworkSource;
+    // файлы файловой системы передаются как file://
+    private void setDataSource(MediaPlayer mp, String src) throws IOException {
+        Uri uri = Uri.parse(src);
+        String path = uri.getPath();
+        if ((uri.getScheme() == null || LocalArtworkSource.isCapacitorServer(uri)) && path != null) {
+            if (path.startsWith(LocalArtworkSource.CAPACITOR_FILE + "/")) {
+                mp.setDataSource(path.substring(LocalArtworkSource.CAPACITOR_FILE.length()));
+                return;
+            }
+            if (path.startsWith(LocalArtworkSource.CAPACITOR_CONTENT + "/")) {
+                mp.setDataSource(context,
+                        Uri.parse("content:/" + path.substring(LocalArtworkSource.CAPACITOR_CONTENT.length())));
+                return;
+            }
+            try (AssetFileDescriptor afd = context.getAssets().openFd(LocalArtworkSource.WEB_ASSETS_DIR + path)) {
+                mp.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+            }
+            return;
+        }
+        mp.setDataSource(context, uri);
+    }
+}
@@ -0,0 +1,72 @@
+package com.sangilov.plugins.mediasession;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+// Ограничивает частоту обновлений уведомления: промежуточные запросы склеиваются,
+// последнее состояние всегда публикуется по заднему фронту
+class NotificationScheduler {
+
+    static final float DEFAULT_MAX_RATE = 4f;
+
+    private final Handler handler;
+    private final Runnable post;
+    private final Runnable flush = this::flush;
+
+    private long minIntervalMs;
+    private long lastPostAt = -1L;
+    private boolean pending = false;
+    private long coalesced = 0L;
+    private long posted = 0L;
+
+    NotificationScheduler(Handler handler, Runnable post) {
+        this.handler = handler;
+        this.post = post;
+        setMaxRate(DEFAULT_MAX_RATE);
+    }
+
+    // Обновлений в секунду; 0 или меньше — без ограничения
+    void setMaxRate(float updatesPerSecond) {
+        minIntervalMs = updatesPerSecond > 0 ? (long) (1000f / updatesPerSecond) : 0L;
+    }
+
+    // immediate — для смены состояния (play/pause), такие изменения не задерживаем
+    void request(boolean immediate) {
+        long now = SystemClock.uptimeMillis();
+        if (immediate || lastPostAt < 0 || now - lastPostAt >= minIntervalMs) {
+            handler.removeCallbacks(flush);
+            pending = false;
+            run(now);
+            return;
+        }
+        coalesced++;
+        if (!pending) {
+            pending = true;
+            handler.postAtTime(flush, lastPostAt + minIntervalMs);
+        }
+    }
+
+    void cancel() {
+        handler.removeCallbacks(flush);
+        pending = false;
+    }
+
+    long getCoalesced() {
+        return coalesced;
+    }
+
+    long getPosted() {
+        return posted;
+    }
+
+    private void flush() {
+        pending = false;
+        run(SystemClock.uptimeMillis());
+    }
+
+    private void run(long now) {
+        lastPostAt = now;
+        posted++;
+        post.run();
+    }
+}
@@ -0,0 +1,111 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Неизменяемая очередь воспроизведения с активным элементом. Соседи активного элемента
+// отдаются в порядке близости — в этом порядке обложки и прогреваются заранее
+final class PlaybackQueue {
+
+    static final class Item {
+        final String id;
+        final String title;
+        final String artist;
+        final String album;
+        final String cover;
+        final long duration;
+        // Источник для нативного плеера; пустой — играет WebView
+        final String src;
+
+        Item(String id, String title, String artist, String album, String cover, long duration, String src) {
+            this.id = id;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.cover = cover;
+            this.duration = duration;
+            this.src = src;
+        }
+    }
+
+    static final PlaybackQueue EMPTY = new PlaybackQueue(Collections.<Item>emptyList(), -1);
+
+    private final List<Item> items;
+    private final int activeIndex;
+
+    private PlaybackQueue(List<Item> items, int activeIndex) {
+        this.items = items;
+        this.activeIndex = activeIndex;
+    }
+
+    static PlaybackQueue of(List<Item> items) {
+        if (items == null || items.isEmpty()) return EMPTY;
+        return new PlaybackQueue(Collections.unmodifiableList(new ArrayList<>(items)), -1);
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    Item get(int index) {
+        return isValid(index) ? items.get(index) : null;
+    }
+
+    int getActiveIndex() {
+        return activeIndex;
+    }
+
+    Item getActive() {
+        return get(activeIndex);
+    }
+
+    boolean isValid(int index) {
+        return index >= 0 && index < items.size();
+    }
+
+    int indexOf(String id) {
+        if (id == null) return -1;
+        for (int i = 0; i < items.size(); i++) {
+            if (id.equals(items.get(i).id)) return i;
+        }
+        return -1;
+    }
+
+    // Неверный индекс очередь не меняет
+    PlaybackQueue withActiveIndex(int index) {
+        if (index == activeIndex || !isValid(index)) return this;
+        return new PlaybackQueue(items, index);
+    }
+
+    // -1, если идти дальше некуда
+    int nextIndex() {
+        return activeIndex >= 0 && isValid(activeIndex + 1) ? activeIndex + 1 : -1;
+    }
+
+    int previousIndex() {
+        return isValid(activeIndex - 1) ? activeIndex - 1 : -1;
+    }
+
+    // Следующий, предыдущий, через один вперёд, через один назад и т.д. — не дальше distance
+    List<Item> neighbors(int distance) {
+        if (activeIndex < 0 || distance <= 0) return Collections.emptyList();
+        List<Item> result = new ArrayList<>(distance * 2);
+        for (int d = 1; d <= distance; d++) {
+            if (isValid(activeIndex + d)) result.add(items.get(activeIndex + d));
+            if (isValid(activeIndex - d)) result.add(items.get(activeIndex - d));
+        }
+        return result;
+    }
+
+    // Окно вокруг активного элемента: системе не отдаём огромную очередь одним Binder-вызовом
+    int windowStart(int windowSize) {
+        if (items.size() <= windowSize) return 0;
+        int start = Math.max(0, activeIndex - windowSize / 4);
+        return Math.min(start, items.size() - windowSize);
+    }
+}
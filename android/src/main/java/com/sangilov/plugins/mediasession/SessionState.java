@@ -0,0 +1,126 @@
+package com.sangilov.plugins.mediasession;
+
+// Неизменяемый снимок состояния сессии. Переходы создают новый снимок (copy-on-write),
+// поэтому его можно читать с любого потока без блокировок. Время передаётся снаружи
+// (elapsedRealtime), чтобы класс не зависел от Android.
+final class SessionState {
+
+    static final SessionState EMPTY = new SessionState(
+            "", "", "", "", 0L,
+            0L, 0L, false, 1.0f,
+            "",
+            ArtworkSizing.DEFAULT_TARGET_SIZE, false, true);
+
+    final String title;
+    final String artist;
+    final String album;
+    final String cover;
+    final long duration;
+
+    final long position;
+    final long positionUpdatedAt;
+    final boolean playing;
+    final float playbackSpeed;
+
+    final String targetPage;
+
+    final int artworkSize;
+    final boolean artworkRgb565;
+    final boolean progressiveArtwork;
+
+    private SessionState(String title, String artist, String album, String cover, long duration,
+                         long position, long positionUpdatedAt, boolean playing, float playbackSpeed,
+                         String targetPage,
+                         int artworkSize, boolean artworkRgb565, boolean progressiveArtwork) {
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.cover = cover;
+        this.duration = duration;
+        this.position = position;
+        this.positionUpdatedAt = positionUpdatedAt;
+        this.playing = playing;
+        this.playbackSpeed = playbackSpeed;
+        this.targetPage = targetPage;
+        this.artworkSize = artworkSize;
+        this.artworkRgb565 = artworkRgb565;
+        this.progressiveArtwork = progressiveArtwork;
+    }
+
+    // Позиция по часам: опорная точка + прошедшее время с учётом скорости
+    long positionAt(long now) {
+        if (!playing) return position;
+        long pos = position + (long) ((now - positionUpdatedAt) * playbackSpeed);
+        return duration > 0 ? Math.min(pos, duration) : pos;
+    }
+
+    String stateName() {
+        return playing ? "playing" : "paused";
+    }
+
+    SessionState withMetadata(String title, String artist, String album, String cover, long duration) {
+        return new SessionState(title, artist, album, cover, duration,
+                position, positionUpdatedAt, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    SessionState withTitle(String title) {
+        return withMetadata(title, artist, album, cover, duration);
+    }
+
+    SessionState withArtist(String artist) {
+        return withMetadata(title, artist, album, cover, duration);
+    }
+
+    SessionState withAlbum(String album) {
+        return withMetadata(title, artist, album, cover, duration);
+    }
+
+    SessionState withCover(String cover) {
+        return withMetadata(title, artist, album, cover, duration);
+    }
+
+    SessionState withDuration(long duration) {
+        return withMetadata(title, artist, album, cover, duration);
+    }
+
+    SessionState withPosition(long position, long now) {
+        return new SessionState(title, artist, album, cover, duration,
+                position, now, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    // Набежавшая позиция фиксируется до смены состояния, иначе экстраполяция "перескочит"
+    SessionState withPlaying(boolean playing, long now) {
+        if (this.playing == playing) return this;
+        return new SessionState(title, artist, album, cover, duration,
+                positionAt(now), now, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    SessionState withPlaybackSpeed(float playbackSpeed, long now) {
+        if (this.playbackSpeed == playbackSpeed) return this;
+        return new SessionState(title, artist, album, cover, duration,
+                positionAt(now), now, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    SessionState withTargetPage(String targetPage) {
+        return new SessionState(title, artist, album, cover, duration,
+                position, positionUpdatedAt, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    SessionState withArtworkOptions(int artworkSize, boolean artworkRgb565, boolean progressiveArtwork) {
+        return new SessionState(title, artist, album, cover, duration,
+                position, positionUpdatedAt, playing, playbackSpeed,
+                targetPage, artworkSize, artworkRgb565, progressiveArtwork);
+    }
+
+    // "playing" / "paused" / "stopped"; неизвестные значения состояние не меняют
+    SessionState withStateName(String state, long now) {
+        if ("playing".equals(state)) return withPlaying(true, now);
+        if ("paused".equals(state) || "stopped".equals(state)) return withPlaying(false, now);
+        return this;
+    }
+}
@@ -0,0 +1,188 @@
+package com.sangilov.plugins.mediasession;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Последний снимок сессии в компактном бинарном файле: после смерти процесса и перезапуска
+// START_STICKY сессия и уведомление восстанавливаются сразу, не дожидаясь WebView.
+// Запись асинхронная и склеенная: пока файл пишется, новые снимки только заменяют ожидающий
+final class SessionStore {
+
+    static final class Snapshot {
+        final SessionState state;
+        final Bitmap thumbnail;
+
+        Snapshot(SessionState state, Bitmap thumbnail) {
+            this.state = state;
+            this.thumbnail = thumbnail;
+        }
+    }
+
+    private static final String FILE_NAME = "media_session_state.bin";
+    private static final int MAGIC = 0x4D534331; // "MSC1"
+    private static final int VERSION = 1;
+    // data: URI в снимок не пишем — обложку восстановит миниатюра
+    private static final int MAX_COVER_LENGTH = 8 * 1024;
+    private static final int THUMBNAIL_QUALITY = 80;
+    // Защита от повреждённого файла: длины больше этой не читаем
+    private static final int MAX_FIELD_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final Runnable write = this::writePending;
+
+    SessionStore(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        executor = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Можно звать часто: пишется только последний снимок
+    void save(SessionState state, Bitmap thumbnail) {
+        if (pending.getAndSet(new Snapshot(state, thumbnail)) != null) {
+            coalesced.incrementAndGet();
+            return;
+        }
+        executor.execute(write);
+    }
+
+    // Сессия завершена пользователем — восстанавливать нечего; выполняется после уже поставленной записи
+    void clear() {
+        pending.set(null);
+        executor.execute(file::delete);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    long getWrites() {
+        return writes.get();
+    }
+
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    // Блокирующее чтение; null — снимка нет или он повреждён
+    Snapshot load() {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            String title = readString(in);
+            String artist = readString(in);
+            String album = readString(in);
+            String cover = readString(in);
+            long duration = in.readLong();
+            long position = in.readLong();
+            float speed = in.readFloat();
+            String targetPage = readString(in);
+            int artworkSize = in.readInt();
+            boolean rgb565 = in.readBoolean();
+            boolean progressive = in.readBoolean();
+            int thumbnailLength = in.readInt();
+            if (thumbnailLength > MAX_FIELD_BYTES) return null;
+            Bitmap thumbnail = null;
+            if (thumbnailLength > 0) {
+                byte[] bytes = new byte[thumbnailLength];
+                in.readFully(bytes);
+                thumbnail = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            }
+            // Звук после смерти процесса не играет — восстанавливаем на паузе
+            SessionState state = SessionState.EMPTY
+                    .withMetadata(title, artist, album, cover, duration)
+                    .withPlaybackSpeed(speed, 0L)
+                    .withPosition(position, 0L)
+                    .withTargetPage(targetPage)
+                    .withArtworkOptions(artworkSize, rgb565, progressive);
+            return new Snapshot(state, thumbnail);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writePending() {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null) return;
+        SessionState s = snapshot.state;
+        // Позиция фиксируется на момент записи, иначе после восстановления она "отстанет"
+        long now = SystemClock.elapsedRealtime();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, s.title);
+            writeString(out, s.artist);
+            writeString(out, s.album);
+            writeString(out, s.cover != null && s.cover.length() <= MAX_COVER_LENGTH ? s.cover : "");
+            out.writeLong(s.duration);
+            out.writeLong(s.positionAt(now));
+            out.writeFloat(s.playbackSpeed);
+            writeString(out, s.targetPage);
+            out.writeInt(s.artworkSize);
+            out.writeBoolean(s.artworkRgb565);
+            out.writeBoolean(s.progressiveArtwork);
+            byte[] thumbnail = compress(snapshot.thumbnail);
+            out.writeInt(thumbnail.length);
+            out.write(thumbnail);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            writes.incrementAndGet();
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private static byte[] compress(Bitmap thumbnail) {
+        if (thumbnail == null || thumbnail.isRecycled()) return new byte[0];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+        if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, bytes)) return new byte[0];
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > MAX_FIELD_BYTES) throw new IOException("Field too long: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
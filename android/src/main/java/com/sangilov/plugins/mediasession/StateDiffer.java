@@ -0,0 +1,117 @@
+package com.sangilov.plugins.mediasession;
+
+import java.util.Objects;
+
+// Помнит последнее опубликованное в сессию и уведомление и пропускает повторы
+final class StateDiffer {
+
+    static final long POSITION_TOLERANCE_MS = 750L;
+
+    private boolean hasMetadata = false;
+    private String title;
+    private String artist;
+    private String album;
+    private String cover;
+    private long duration;
+    private int artworkSize;
+    private boolean artworkRgb565;
+
+    private boolean hasState = false;
+    private boolean playing;
+    private long position;
+    private float speed;
+    private long positionAt;
+
+    private boolean hasNotification = false;
+    private String notifiedTitle;
+    private String notifiedArtist;
+    private boolean notifiedPlaying;
+    private String notifiedTargetPage;
+
+    private long skippedMetadata = 0L;
+    private long skippedState = 0L;
+    private long skippedNotification = 0L;
+
+    synchronized boolean metadataChanged(String title, String artist, String album, String cover,
+                                         long duration, int artworkSize, boolean artworkRgb565) {
+        if (hasMetadata
+                && Objects.equals(this.title, title)
+                && Objects.equals(this.artist, artist)
+                && Objects.equals(this.album, album)
+                && Objects.equals(this.cover, cover)
+                && this.duration == duration
+                && this.artworkSize == artworkSize
+                && this.artworkRgb565 == artworkRgb565) {
+            skippedMetadata++;
+            return false;
+        }
+        hasMetadata = true;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.cover = cover;
+        this.duration = duration;
+        this.artworkSize = artworkSize;
+        this.artworkRgb565 = artworkRgb565;
+        return true;
+    }
+
+    // Позиция считается неизменной, если совпадает с экстраполированной в пределах допуска
+    synchronized boolean stateChanged(boolean playing, long position, float speed, long now) {
+        if (hasState && this.playing == playing && this.speed == speed) {
+            long expected = this.playing
+                    ? this.position + (long) ((now - positionAt) * this.speed)
+                    : this.position;
+            if (Math.abs(position - expected) <= POSITION_TOLERANCE_MS) {
+                skippedState++;
+                return false;
+            }
+        }
+        hasState = true;
+        this.playing = playing;
+        this.position = position;
+        this.speed = speed;
+        this.positionAt = now;
+        return true;
+    }
+
+    synchronized boolean notificationChanged(String title, String artist, boolean playing, String targetPage) {
+        if (hasNotification
+                && Objects.equals(notifiedTitle, title)
+                && Objects.equals(notifiedArtist, artist)
+                && notifiedPlaying == playing
+                && Objects.equals(notifiedTargetPage, targetPage)) {
+            skippedNotification++;
+            return false;
+        }
+        hasNotification = true;
+        notifiedTitle = title;
+        notifiedArtist = artist;
+        notifiedPlaying = playing;
+        notifiedTargetPage = targetPage;
+        return true;
+    }
+
+    // Например, обложка не загрузилась — следующий такой же запрос должен попробовать снова
+    synchronized void invalidateMetadata() {
+        hasMetadata = false;
+    }
+
+    synchronized void invalidateAll() {
+        hasMetadata = false;
+        hasState = false;
+        hasNotification = false;
+    }
+
+    synchronized long getSkippedMetadata() {
+        return skippedMetadata;
+    }
+
+    synchronized long getSkippedState() {
+        return skippedState;
+    }
+
+    synchronized long getSkippedNotification() {
+        return skippedNotification;
+    }
+}
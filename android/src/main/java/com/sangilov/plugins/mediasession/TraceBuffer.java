@@ -0,0 +1,93 @@
+package com.sangilov.plugins.mediasession;
+
+// Кольцо завершённых отрезков трассировки фиксированного размера. Как и EventJournal — параллельные
+// массивы, запись ничего не выделяет; при переполнении затираются самые старые. Время — в наносекундах
+// от любых монотонных часов, передаётся снаружи, чтобы класс не зависел от Android.
+final class TraceBuffer {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int MAX_CAPACITY = 65536;
+
+    interface Sink {
+        // async — отрезок между потоками (ожидание в очереди), а не вложенный вызов на одном потоке
+        void onSpan(long seq, String name, String arg, boolean async, long startNanos, long durationNanos,
+                    int tid, String thread);
+    }
+
+    private final int capacity;
+    private final String[] names;
+    private final String[] args;
+    private final boolean[] asyncs;
+    private final long[] starts;
+    private final long[] durations;
+    private final int[] tids;
+    private final String[] threads;
+
+    // Всего записано; слот следующей записи — written % capacity. Доступ под lock (this)
+    private long written = 0L;
+
+    TraceBuffer(int capacity) {
+        this.capacity = Math.max(1, Math.min(capacity, MAX_CAPACITY));
+        this.names = new String[this.capacity];
+        this.args = new String[this.capacity];
+        this.asyncs = new boolean[this.capacity];
+        this.starts = new long[this.capacity];
+        this.durations = new long[this.capacity];
+        this.tids = new int[this.capacity];
+        this.threads = new String[this.capacity];
+    }
+
+    synchronized void record(String name, String arg, boolean async, long startNanos, long durationNanos,
+                             int tid, String thread) {
+        int slot = (int) (written % capacity);
+        names[slot] = name;
+        args[slot] = arg;
+        asyncs[slot] = async;
+        starts[slot] = startNanos;
+        durations[slot] = durationNanos;
+        tids[slot] = tid;
+        threads[slot] = thread;
+        written++;
+    }
+
+    // Снимок копируется под lock, sink вызывается уже без него — выгрузка не тормозит запись
+    void snapshot(Sink sink) {
+        int count;
+        long first;
+        String[] n;
+        String[] a;
+        boolean[] as;
+        long[] st;
+        long[] du;
+        int[] ti;
+        String[] th;
+        synchronized (this) {
+            count = (int) Math.min(written, capacity);
+            first = written - count;
+            n = names.clone();
+            a = args.clone();
+            as = asyncs.clone();
+            st = starts.clone();
+            du = durations.clone();
+            ti = tids.clone();
+            th = threads.clone();
+        }
+        for (int i = 0; i < count; i++) {
+            long seq = first + i;
+            int slot = (int) (seq % capacity);
+            sink.onSpan(seq, n[slot], a[slot], as[slot], st[slot], du[slot], ti[slot], th[slot]);
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getWritten() {
+        return written;
+    }
+
+    synchronized long getOverwritten() {
+        return Math.max(0L, written - capacity);
+    }
+}
@@ -0,0 +1,129 @@
+package com.sangilov.plugins.mediasession;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Включаемая по запросу трассировка: отрезки пишутся в TraceBuffer и одновременно в android.os.Trace
+// (видны в systrace/Perfetto при записи с устройства). Выключенная стоит одно чтение volatile.
+// Имена отрезков — константы, действие передаётся отдельным аргументом, чтобы не склеивать строки.
+final class Tracer {
+
+    private static final String CATEGORY = "mediasession";
+
+    private static volatile boolean enabled = false;
+    private static volatile TraceBuffer buffer;
+
+    private Tracer() {}
+
+    // Новая запись начинается с чистого буфера
+    static void start(int capacity) {
+        buffer = new TraceBuffer(capacity > 0 ? capacity : TraceBuffer.DEFAULT_CAPACITY);
+        enabled = true;
+    }
+
+    // Буфер остаётся для dumpTrace
+    static void stop() {
+        enabled = false;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Метка начала отрезка между потоками; 0 — трассировка выключена
+    static long mark() {
+        return enabled ? SystemClock.elapsedRealtimeNanos() : 0L;
+    }
+
+    // Отрезок на текущем потоке; end обязан вызываться на нём же (вложенность секций Trace)
+    static long begin(String name) {
+        if (!enabled) return 0L;
+        Trace.beginSection(name);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    static void end(String name, String arg, long startedAt) {
+        if (startedAt == 0L) return;
+        // Секция закрывается, даже если трассировку выключили посередине отрезка
+        Trace.endSection();
+        record(name, arg, false, startedAt);
+    }
+
+    // Отрезок от mark() (или sentAt/enqueuedAt команды) до текущего момента на другом потоке
+    static void span(String name, String arg, long startedAt) {
+        if (!enabled || startedAt <= 0L) return;
+        record(name, arg, true, startedAt);
+    }
+
+    private static void record(String name, String arg, boolean async, long startedAt) {
+        TraceBuffer b = buffer;
+        if (b == null) return;
+        long now = SystemClock.elapsedRealtimeNanos();
+        b.record(name, arg, async, startedAt, now - startedAt, Process.myTid(), Thread.currentThread().getName());
+    }
+
+    // Формат Chrome trace-event (JSON Object Format): открывается в Perfetto UI и chrome://tracing
+    static JSObject toChromeTrace() {
+        JSObject ret = new JSObject();
+        JSArray events = new JSArray();
+        TraceBuffer b = buffer;
+        int pid = Process.myPid();
+        if (b != null) {
+            Set<Integer> named = new HashSet<>();
+            b.snapshot((seq, name, arg, async, startNanos, durationNanos, tid, thread) -> {
+                if (named.add(tid)) {
+                    JSObject meta = new JSObject();
+                    meta.put("name", "thread_name");
+                    meta.put("ph", "M");
+                    meta.put("pid", pid);
+                    meta.put("tid", tid);
+                    JSObject metaArgs = new JSObject();
+                    metaArgs.put("name", thread);
+                    meta.put("args", metaArgs);
+                    events.put(meta);
+                }
+                double ts = startNanos / 1000.0;
+                double dur = durationNanos / 1000.0;
+                if (async) {
+                    // Парные b/e с общим id: отрезки между потоками не обязаны вкладываться друг в друга
+                    events.put(event(name, arg, "b", ts, pid, tid).put("id", seq));
+                    events.put(event(name, arg, "e", ts + dur, pid, tid).put("id", seq));
+                } else {
+                    events.put(event(name, arg, "X", ts, pid, tid).put("dur", dur));
+                }
+            });
+        }
+        ret.put("traceEvents", events);
+        ret.put("displayTimeUnit", "ms");
+        JSObject other = new JSObject();
+        other.put("recording", enabled);
+        other.put("capacity", b != null ? b.getCapacity() : 0);
+        other.put("written", b != null ? b.getWritten() : 0L);
+        other.put("overwritten", b != null ? b.getOverwritten() : 0L);
+        ret.put("otherData", other);
+        return ret;
+    }
+
+    private static JSObject event(String name, String arg, String phase, double ts, int pid, int tid) {
+        JSObject event = new JSObject();
+        event.put("name", name);
+        event.put("cat", CATEGORY);
+        event.put("ph", phase);
+        event.put("ts", ts);
+        event.put("pid", pid);
+        event.put("tid", tid);
+        if (arg != null) {
+            JSObject args = new JSObject();
+            args.put("action", arg);
+            event.put("args", args);
+        }
+        return event;
+    }
+}
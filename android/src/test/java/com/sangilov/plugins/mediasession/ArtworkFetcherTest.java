@@ -0,0 +1,128 @@
+package com.sangilov.plugins.mediasession;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ArtworkFetcher against a local stand-in HTTP server; runs offline on the host JVM.
+ */
+public class ArtworkFetcherTest {
+
+    private static final byte[] COVER = new byte[4096];
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger coverRequests = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cover.jpg", exchange -> {
+            coverRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, COVER.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(COVER);
+            }
+        });
+        server.createContext("/huge.jpg", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 64; i++) {
+                    out.write(COVER);
+                }
+            } catch (Exception ignored) {
+                // клиент оборвал соединение, как и ожидается
+            }
+        });
+        server.createContext("/missing.jpg", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void fetchesBodyAndValidators() throws Exception {
+        ArtworkFetcher fetcher = new ArtworkFetcher();
+        File target = folder.newFile();
+
+        ArtworkFetcher.Result result = fetcher.fetch(baseUrl + "/cover.jpg", null, null, target);
+
+        assertTrue(result.isOk());
+        assertEquals(COVER.length, result.bytes);
+        assertEquals("\"v1\"", result.etag);
+        assertEquals("max-age=60", result.cacheControl);
+        assertArrayEquals(COVER, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void conditionalRequestReturnsNotModified() throws Exception {
+        ArtworkFetcher fetcher = new ArtworkFetcher();
+        File target = folder.newFile();
+
+        ArtworkFetcher.Result result = fetcher.fetch(baseUrl + "/cover.jpg", "\"v1\"", null, target);
+
+        assertTrue(result.isNotModified());
+        assertEquals(0L, target.length());
+    }
+
+    @Test
+    public void rejectsResponsesOverTheByteBudget() throws Exception {
+        ArtworkFetcher fetcher = new ArtworkFetcher(COVER.length * 2L, 2, 1000L);
+        File target = folder.newFile();
+
+        ArtworkFetcher.Result result = fetcher.fetch(baseUrl + "/huge.jpg", null, null, target);
+
+        assertEquals(ArtworkFetcher.Failure.TOO_LARGE, result.failure);
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void repeatedFailuresAreNegativelyCached() throws Exception {
+        ArtworkFetcher fetcher = new ArtworkFetcher();
+        String url = baseUrl + "/missing.jpg";
+
+        assertEquals(ArtworkFetcher.Failure.HTTP_ERROR, fetcher.fetch(url, null, null, folder.newFile()).failure);
+        assertEquals(ArtworkFetcher.Failure.HTTP_ERROR, fetcher.fetch(url, null, null, folder.newFile()).failure);
+        assertEquals(ArtworkFetcher.Failure.NEGATIVE_CACHED, fetcher.fetch(url, null, null, folder.newFile()).failure);
+        assertEquals(1L, fetcher.getFailures(ArtworkFetcher.Failure.NEGATIVE_CACHED));
+    }
+
+    @Test
+    public void invalidUrlIsReportedExplicitly() throws Exception {
+        ArtworkFetcher fetcher = new ArtworkFetcher();
+
+        ArtworkFetcher.Result result = fetcher.fetch("not a url", null, null, folder.newFile());
+
+        assertEquals(ArtworkFetcher.Failure.INVALID_URL, result.failure);
+    }
+}
@@ -0,0 +1,54 @@
+package com.sangilov.plugins.mediasession;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Collapsing in the direct-channel queue must never reorder commands relative to each other.
+ */
+public class CommandQueueTest {
+
+    private static final String META = "META";
+    private static final String INIT = "INIT";
+    private static final String SEEK = "SEEK";
+
+    @Test
+    public void consecutiveCommandsCollapseToLatest() {
+        CommandQueue<String> queue = new CommandQueue<>(SEEK);
+        assertTrue(queue.offer(SEEK, "1", 1L));
+        assertFalse(queue.offer(SEEK, "2", 2L));
+        assertFalse(queue.offer(SEEK, "3", 3L));
+
+        CommandQueue.Command<String> command = queue.poll();
+        assertEquals("3", command.payload);
+        assertEquals(3L, command.enqueuedAt);
+        assertNull(queue.poll());
+        assertEquals(2L, queue.getCollapsed());
+    }
+
+    @Test
+    public void collapsedCommandDoesNotJumpAheadOfLaterOnes() {
+        CommandQueue<String> queue = new CommandQueue<>(META);
+        queue.offer(META, "A", 1L);
+        queue.offer(INIT, "B", 2L);
+        queue.offer(META, "C", 3L);
+
+        assertEquals("A", queue.poll().payload);
+        assertEquals("B", queue.poll().payload);
+        assertEquals("C", queue.poll().payload);
+        assertNull(queue.poll());
+        assertEquals(0L, queue.getCollapsed());
+    }
+
+    @Test
+    public void polledCommandIsNotUpdatedInPlace() {
+        CommandQueue<String> queue = new CommandQueue<>(SEEK);
+        queue.offer(SEEK, "1", 1L);
+        CommandQueue.Command<String> running = queue.poll();
+        assertTrue(queue.offer(SEEK, "2", 2L));
+
+        assertEquals("1", running.payload);
+        assertEquals("2", queue.poll().payload);
+    }
+}
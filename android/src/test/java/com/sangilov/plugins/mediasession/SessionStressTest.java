@@ -0,0 +1,476 @@
+package com.sangilov.plugins.mediasession;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Looper;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowSystemClock;
+
+/**
+ * Stress/soak harness for the command and event paths: thousands of mixed commands through the plugin
+ * (direct channel) and through onStartCommand (controller intents), covers served by a local stand-in
+ * server. Runs offline on the host JVM under Robolectric; thresholds below fail the build on regression.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SessionStressTest {
+
+    private static final int COVERS = 8;
+    private static final int PLUGIN_COMMANDS = 3000;
+    private static final int CONTROLLER_COMMANDS = 2000;
+    // Как часто главный поток успевает доставить события в мост (в командах)
+    private static final int DRAIN_EVERY = 50;
+
+    // Пороги: уведомление обновляется сразу только при смене play/pause, остальное — с ограничением частоты
+    private static final int MAX_EXTRA_NOTIFICATION_POSTS = 4;
+    private static final int MAX_LOST_EVENTS = 0;
+    private static final int MAX_REJECTED_LOADS = 0;
+    // Во время смены обложек: три потока пула и текущая загрузка в очереди; отменённые из очереди убираются
+    private static final int MAX_ARTWORK_BACKLOG = 4;
+    // Каждая из COVERS обложек — не больше размера по умолчанию в ARGB_8888, без запаса на лишние буферы
+    private static final long MAX_RETAINED_ARTWORK_BYTES =
+            (long) COVERS * ArtworkSizing.DEFAULT_TARGET_SIZE * ArtworkSizing.DEFAULT_TARGET_SIZE * 4;
+    private static final long SETTLE_TIMEOUT_MS = 10000L;
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger coverRequests = new AtomicInteger();
+
+    private ServiceController<MediaSessionService> controller;
+    private MediaSessionService service;
+    private RecordingPlugin plugin;
+    // Наибольшая очередь пула обложек, замеченная во время нагрузки
+    private long peakBacklog = 0L;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        for (int i = 0; i < COVERS; i++) {
+            byte[] cover = png(new Color(i * 30, 255 - i * 30, 128));
+            server.createContext("/cover/" + i + ".png", exchange -> {
+                coverRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                exchange.sendResponseHeaders(200, cover.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(cover);
+                }
+            });
+        }
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        controller = Robolectric.buildService(MediaSessionService.class).create();
+        service = controller.get();
+        plugin = new RecordingPlugin();
+        plugin.attachService(service);
+        plugin.attachEvents();
+        // Хвост журнала от предыдущего теста доставляется до замеров
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @After
+    public void tearDown() {
+        plugin.handleOnDestroy();
+        controller.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void pluginCommandStormConvergesToLastState() throws Exception {
+        int toggles = 0;
+        String lastTitle = null;
+        boolean lastPlaying = false;
+        long lastSeek = 0L;
+        List<RecordingCall> calls = new ArrayList<>();
+
+        calls.add(call(plugin::init, "init", new JSObject()
+                .put("title", "Track 0").put("artist", "Artist").put("cover", cover(0)).put("duration", 600000.0)));
+        for (int i = 1; i <= PLUGIN_COMMANDS; i++) {
+            switch (i % 4) {
+                case 0:
+                    lastTitle = "Track " + i;
+                    calls.add(call(plugin::updateMetadata, "updateMetadata", new JSObject()
+                            .put("title", lastTitle).put("artist", "Artist").put("cover", cover(i))
+                            .put("duration", 600000.0)));
+                    if (i % DRAIN_EVERY == 0) {
+                        sampleBacklog();
+                    }
+                    break;
+                case 1:
+                case 3:
+                    lastSeek = (i * 997L) % 600000L;
+                    calls.add(call(plugin::seekTo, "seekTo", new JSObject().put("position", (double) lastSeek)));
+                    break;
+                default:
+                    lastPlaying = !lastPlaying;
+                    toggles++;
+                    calls.add(lastPlaying ? call(plugin::play, "play", new JSObject())
+                            : call(plugin::pause, "pause", new JSObject()));
+                    break;
+            }
+        }
+        // Последним — пауза и перемотка, чтобы позиция не экстраполировалась
+        if (lastPlaying) {
+            calls.add(call(plugin::pause, "pause", new JSObject()));
+            lastPlaying = false;
+            toggles++;
+        }
+        calls.add(call(plugin::seekTo, "seekTo", new JSObject().put("position", (double) lastSeek)));
+
+        for (RecordingCall c : calls) {
+            assertNull(c.getMethodName() + " rejected", c.rejected);
+            assertTrue(c.getMethodName() + " not resolved", c.resolved);
+        }
+
+        JSObject diagnostics = settle();
+        JSObject state = service.describeState();
+        assertEquals(lastTitle, state.getString("title"));
+        assertEquals("paused", state.getString("state"));
+        assertEquals(lastSeek, state.optLong("position"));
+
+        Notification notification = currentNotification();
+        assertNotNull("notification was never posted", notification);
+        assertEquals(lastTitle, String.valueOf(notification.extras.getCharSequence(Notification.EXTRA_TITLE)));
+        assertEquals(lastPlaying, (notification.flags & Notification.FLAG_ONGOING_EVENT) != 0);
+
+        long posted = diagnostics.getJSObject("notification").optLong("posted");
+        assertTrue("notification posts: " + posted + " for " + toggles + " toggles",
+                posted <= toggles + MAX_EXTRA_NOTIFICATION_POSTS);
+
+        assertArtworkHealthy(diagnostics);
+    }
+
+    @Test
+    public void controllerCommandsThroughStartCommandLoseNoEvents() throws Exception {
+        JSObject eventsBefore = MediaSessionControlPlugin.describeEventDiagnostics();
+        int deliveredBefore = plugin.events.size();
+
+        service.onStartCommand(command(MediaSessionService.ACTION_INIT, true)
+                .putExtra("title", "Controller").putExtra("artist", "Artist").putExtra("album", "")
+                .putExtra("cover", cover(0)).putExtra("duration", 600000L).putExtra("targetPage", ""), 0, 1);
+        long lastSeek = 0L;
+        int emitted = 0;
+        for (int i = 1; i <= CONTROLLER_COMMANDS; i++) {
+            Intent intent;
+            if (i % 3 == 0) {
+                lastSeek = (i * 331L) % 600000L;
+                intent = command(MediaSessionService.ACTION_SEEK_TO, false).putExtra("position", lastSeek);
+            } else {
+                intent = command(i % 3 == 1 ? MediaSessionService.ACTION_PLAY : MediaSessionService.ACTION_PAUSE, false);
+            }
+            service.onStartCommand(intent, 0, i + 1);
+            emitted++;
+            if (i % DRAIN_EVERY == 0) {
+                sampleBacklog();
+                shadowOf(Looper.getMainLooper()).idle();
+            }
+        }
+        service.onStartCommand(command(MediaSessionService.ACTION_PAUSE, false), 0, CONTROLLER_COMMANDS + 2);
+        emitted++;
+
+        JSObject diagnostics = settle();
+        JSObject events = diagnostics.getJSObject("events");
+        long sent = events.optLong("sent") - eventsBefore.optLong("sent");
+        long merged = events.optLong("merged") - eventsBefore.optLong("merged");
+        long lost = events.optLong("overwritten") - eventsBefore.optLong("overwritten")
+                + events.optLong("droppedWithoutListener") - eventsBefore.optLong("droppedWithoutListener");
+        List<JSObject> delivered = plugin.events.subList(deliveredBefore, plugin.events.size());
+
+        assertEquals("every controller command emits one event", emitted, sent);
+        assertTrue("lost events: " + lost, lost <= MAX_LOST_EVENTS);
+        assertEquals("delivered + merged must cover everything sent", sent, delivered.size() + merged);
+        assertEquals(0L, events.optLong("pending"));
+
+        long previousSeq = 0L;
+        for (JSObject event : delivered) {
+            long seq = event.optLong("seq");
+            assertTrue("events out of order at seq " + seq, seq > previousSeq);
+            previousSeq = seq;
+        }
+        assertEquals("pause", delivered.get(delivered.size() - 1).getString("event"));
+        assertEquals(lastSeek, service.describeState().optLong("position"));
+        assertEquals("paused", service.describeState().getString("state"));
+
+        assertArtworkHealthy(diagnostics);
+    }
+
+    @Test
+    public void progressTicksWhileStateIsPushedFasterThanInterval() throws Exception {
+        call(plugin::startProgressUpdates, "startProgressUpdates", new JSObject().put("interval", 1000.0));
+        call(plugin::init, "init", new JSObject()
+                .put("title", "Ticking").put("isPlaying", true).put("duration", 600000.0));
+        awaitDiagnostics();
+        shadowOf(Looper.getMainLooper()).idle();
+        int before = countEvents("progress");
+
+        // timeupdate раз в 250 мс при интервале progress 1000 мс
+        for (int i = 1; i <= 20; i++) {
+            call(plugin::updatePlaybackState, "updatePlaybackState", new JSObject()
+                    .put("state", "playing").put("position", i * 250.0));
+            ShadowSystemClock.advanceBy(Duration.ofMillis(250));
+            awaitDiagnostics();
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+
+        int ticks = countEvents("progress") - before;
+        assertTrue("progress events in 5 s of updates: " + ticks, ticks >= 4);
+    }
+
+    @Test
+    public void eventsWaitInJournalUntilPageSubscribes() {
+        plugin.listening = false;
+        int deliveredBefore = plugin.events.size();
+        MediaSessionControlPlugin.sendEvent("play", null);
+        MediaSessionControlPlugin.sendEvent("pause", null);
+        MediaSessionControlPlugin.sendEvent("next", null);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals("events delivered before addListener", deliveredBefore, plugin.events.size());
+        assertEquals(3L, MediaSessionControlPlugin.describeEventDiagnostics().optLong("pending"));
+
+        // То, что делает addListener после регистрации слушателя
+        plugin.listening = true;
+        plugin.attachEvents();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        List<JSObject> delivered = plugin.events.subList(deliveredBefore, plugin.events.size());
+        assertEquals(3, delivered.size());
+        assertEquals("play", delivered.get(0).getString("event"));
+        assertEquals("next", delivered.get(2).getString("event"));
+        assertEquals(0L, MediaSessionControlPlugin.describeEventDiagnostics().optLong("pending"));
+    }
+
+    @Test
+    public void directChannelIsRestoredAfterBindingDies() throws Exception {
+        Application app = RuntimeEnvironment.getApplication();
+        ShadowApplication shadowApp = shadowOf(app);
+        Intent bindIntent = new Intent(app, MediaSessionService.class).setAction(MediaSessionService.ACTION_BIND_LOCAL);
+        ComponentName component = new ComponentName(app, MediaSessionService.class);
+        assertNull("foreign bind intents must not get the local binder",
+                service.onBind(new Intent(app, MediaSessionService.class).setAction("other")));
+        shadowApp.setComponentNameAndServiceForBindServiceForIntent(bindIntent, component, service.onBind(bindIntent));
+
+        // Отдельный плагин без attachService: канал появляется только через bindService
+        RecordingPlugin bound = new RecordingPlugin();
+        ServiceController<MediaSessionService> restarted = null;
+        try {
+            bound.bindToService();
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals(1, shadowApp.getBoundServiceConnections().size());
+            ServiceConnection connection = shadowApp.getBoundServiceConnections().get(0);
+
+            call(bound::updateMetadata, "updateMetadata", new JSObject().put("title", "Direct"));
+            awaitDiagnostics(service);
+            assertEquals("Direct", service.describeState().getString("title"));
+            assertNull("command went through startForegroundService", shadowApp.getNextStartedService());
+
+            // stopSelf() и новый запуск: система сообщает о смерти привязки без BIND_AUTO_CREATE
+            restarted = Robolectric.buildService(MediaSessionService.class).create();
+            MediaSessionService next = restarted.get();
+            shadowApp.setComponentNameAndServiceForBindServiceForIntent(bindIntent, component, next.onBind(bindIntent));
+            connection.onBindingDied(component);
+            assertTrue("dead binding was not released", shadowApp.getUnboundServiceConnections().contains(connection));
+
+            // Пока привязка не восстановлена, команда уходит холодным стартом
+            call(bound::updateMetadata, "updateMetadata", new JSObject().put("title", "Cold"));
+            Intent started = shadowApp.getNextStartedService();
+            assertNotNull("command was lost while rebinding", started);
+            assertEquals(MediaSessionService.ACTION_UPDATE_METADATA, started.getAction());
+
+            shadowOf(Looper.getMainLooper()).idle();
+            assertTrue("binding was not requested again", shadowApp.getBoundServiceConnections().contains(connection));
+            call(bound::updateMetadata, "updateMetadata", new JSObject().put("title", "Rebound"));
+            awaitDiagnostics(next);
+            assertEquals("Rebound", next.describeState().getString("title"));
+            assertNull("command went through startForegroundService", shadowApp.getNextStartedService());
+        } finally {
+            bound.handleOnDestroy();
+            if (restarted != null) {
+                restarted.destroy();
+            }
+        }
+    }
+
+    private void assertArtworkHealthy(JSObject diagnostics) {
+        JSObject artwork = diagnostics.getJSObject("artwork");
+        assertTrue("artwork loads rejected: " + artwork,
+                artwork.optLong("loadsRejected") <= MAX_REJECTED_LOADS);
+        assertTrue("artwork backlog during churn: " + peakBacklog, peakBacklog <= MAX_ARTWORK_BACKLOG);
+        assertTrue("retained artwork bytes: " + artwork,
+                artwork.optLong("memoryBytes") <= MAX_RETAINED_ARTWORK_BYTES);
+        assertTrue("cover server was never reached", coverRequests.get() > 0);
+    }
+
+    // Снимок посреди нагрузки: пул обложек ещё занят предыдущими загрузками
+    private void sampleBacklog() throws Exception {
+        JSObject artwork = awaitDiagnostics().getJSObject("artwork");
+        peakBacklog = Math.max(peakBacklog, artwork.optLong("loadsInFlight"));
+    }
+
+    // Двигает виртуальные часы (ограничитель частоты, отложенные записи), пока пул обложек не опустеет
+    // и это не подтвердится дважды подряд — результат загрузки публикуется уже после выхода из пула
+    private JSObject settle() throws Exception {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+        int quiet = 0;
+        while (true) {
+            ShadowSystemClock.advanceBy(Duration.ofSeconds(1));
+            JSObject diagnostics = awaitDiagnostics();
+            shadowOf(Looper.getMainLooper()).idle();
+            quiet = diagnostics.getJSObject("artwork").optLong("loadsInFlight") == 0 ? quiet + 1 : 0;
+            if (quiet >= 2) return awaitDiagnostics();
+            if (System.currentTimeMillis() > deadline) {
+                fail("Session did not settle: " + diagnostics);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    // Снимок строится на потоке сессии после всех уже поставленных команд — заодно барьер
+    private JSObject awaitDiagnostics() throws Exception {
+        return awaitDiagnostics(service);
+    }
+
+    private static JSObject awaitDiagnostics(MediaSessionService service) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<JSObject> ref = new AtomicReference<>();
+        assertTrue(service.requestDiagnostics(diagnostics -> {
+            ref.set(diagnostics);
+            latch.countDown();
+        }));
+        assertTrue("session thread is stuck", latch.await(5, TimeUnit.SECONDS));
+        return ref.get();
+    }
+
+    private int countEvents(String name) {
+        int count = 0;
+        for (JSObject event : plugin.events) {
+            if (name.equals(event.getString("event"))) count++;
+        }
+        return count;
+    }
+
+    private Notification currentNotification() {
+        NotificationManager manager =
+                (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+        return shadowOf(manager).getNotification(1);
+    }
+
+    private Intent command(String action, boolean fromPlugin) {
+        Intent intent = new Intent(service, MediaSessionService.class);
+        intent.setAction(action);
+        intent.putExtra(MediaSessionService.EXTRA_COMMAND_TOKEN, MediaSessionService.COMMAND_TOKEN);
+        intent.putExtra(MediaSessionService.EXTRA_FROM_PLUGIN, fromPlugin);
+        return intent;
+    }
+
+    private String cover(int i) {
+        return baseUrl + "/cover/" + (i % COVERS) + ".png";
+    }
+
+    private static RecordingCall call(Method method, String name, JSObject data) {
+        RecordingCall call = new RecordingCall(name, data);
+        method.invoke(call);
+        return call;
+    }
+
+    private static byte[] png(Color color) throws Exception {
+        BufferedImage image = new BufferedImage(640, 640, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, color.getRGB());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private interface Method {
+        void invoke(PluginCall call);
+    }
+
+    // Вызов без моста: результат запоминается, а не уходит в WebView
+    private static final class RecordingCall extends PluginCall {
+        boolean resolved;
+        String rejected;
+
+        RecordingCall(String methodName, JSObject data) {
+            super(null, "MediaSessionControl", "stress", methodName, data);
+        }
+
+        @Override
+        public void resolve() {
+            resolved = true;
+        }
+
+        @Override
+        public void resolve(JSObject data) {
+            resolved = true;
+        }
+
+        @Override
+        public void reject(String msg, String code, Exception ex, JSObject data) {
+            rejected = msg;
+        }
+    }
+
+    // Слушатель моста: события, доставленные на главном потоке
+    private static final class RecordingPlugin extends MediaSessionControlPlugin {
+        final List<JSObject> events = new ArrayList<>();
+        // Подписалась ли страница на mediaSessionEvent
+        boolean listening = true;
+
+        @Override
+        protected boolean hasListeners(String eventName) {
+            return listening;
+        }
+
+        // Без моста Capacitor: привязка и холодный старт идут от приложения Robolectric
+        @Override
+        public Context getContext() {
+            return RuntimeEnvironment.getApplication();
+        }
+
+        @Override
+        protected void notifyListeners(String eventName, JSObject data) {
+            events.add(data);
+        }
+    }
+}
@@ -8,11 +8,16 @@ export interface InitOptions {
   title?: string;
   artist?: string;
   album?: string;
-  cover?: string;       // URL обложки
+  cover?: string;       // Обложка: http(s), file://, content://, data:...;base64 или локальный путь Capacitor
   duration?: number;    // Длительность трека (мс)
   position?: number;    // Начальная позиция (мс)
   isPlaying?: boolean;  // Состояние воспроизведения
   targetPage?: string;  // Страница для открытия при клике на уведомление
+  artworkSize?: number;     // Длинная сторона обложки в px после декодирования (по умолчанию 512)
+  artworkRgb565?: boolean;  // Декодировать обложку в RGB_565 (вдвое меньше памяти, без альфа-канала)
+  progressiveArtwork?: boolean; // Публиковать текст сразу, обложку — когда загрузится (по умолчанию true)
+  notificationMaxRate?: number; // Максимум обновлений уведомления в секунду (по умолчанию 4, 0 — без ограничения)
+  warmTimeout?: number; // Сколько мс держать сессию после stop/dismiss, чтобы следующий init был тёплым (по умолчанию 0 — выключено)
 }
 
 export interface UpdatePlaybackStateOptions {
@@ -27,12 +32,211 @@ export interface UpdateMetadataOptions {
   album?: string;
   cover?: string;
   duration?: number;
+  artworkSize?: number;
+  artworkRgb565?: boolean;
+  progressiveArtwork?: boolean;
+}
+
+export interface ApplyStateOptions {
+  title?: string;
+  artist?: string;
+  album?: string;
+  cover?: string;
+  duration?: number;
+  artworkSize?: number;
+  artworkRgb565?: boolean;
+  progressiveArtwork?: boolean;
+  state?: "playing" | "paused" | "stopped";
+  position?: number;
+  playbackSpeed?: number;
+  targetPage?: string;
 }
 
 export interface SeekToOptions {
   position: number; // Новая позиция в мс
 }
 
+export interface QueueItem {
+  id?: string;          // Идентификатор элемента (по умолчанию — индекс)
+  title?: string;
+  artist?: string;
+  album?: string;
+  cover?: string;
+  duration?: number;
+  src?: string;         // Источник для нативного плеера; при активации элемента включается setSource
+}
+
+export interface SetQueueOptions {
+  items: QueueItem[];
+  activeIndex?: number; // Активный элемент (по умолчанию не выбран)
+  prefetch?: number;    // Сколько соседей активного элемента прогревать заранее (по умолчанию 1, максимум 3)
+}
+
+export interface SetActiveQueueItemOptions {
+  index?: number;
+  id?: string;
+}
+
+export interface SetSourceOptions {
+  src: string;          // http(s), file://, content://, путь веб-приложения (/assets/…) или локальный путь Capacitor
+  position?: number;    // Начальная позиция (мс)
+  autoplay?: boolean;   // Начать воспроизведение после подготовки (по умолчанию false)
+}
+
+export interface BrowsingOptions {
+  enabled?: boolean;    // Отдавать дерево обзора Android Auto / Wear (по умолчанию true); сохраняется между запусками
+  allowedPackages?: string[]; // Дополнительные пакеты контроллеров; своё приложение, Android Auto, Wear, Ассистент и шторка разрешены всегда
+}
+
+export interface BrowseItem {
+  mediaId: string;
+  title?: string;
+  subtitle?: string;
+  iconUri?: string;
+  browsable?: boolean;  // Узел с детьми
+  playable?: boolean;   // По умолчанию — для всех не-browsable элементов
+}
+
+export interface ProvideBrowseChildrenOptions {
+  requestId: number;    // requestId из события browseRequest
+  items: BrowseItem[];  // Дети узла для запрошенной страницы
+}
+
+export interface InvalidateBrowseChildrenOptions {
+  parentId?: string;    // Без parentId сбрасывается весь кэш
+}
+
+export interface ProgressUpdatesOptions {
+  interval?: number; // Интервал события progress в мс (по умолчанию 1000, минимум 100)
+}
+
+export interface DiagnosticsOptions {
+  interval?: number; // Интервал события diagnostics в мс (по умолчанию 60000, минимум 1000)
+}
+
+export interface LatencySummary {
+  count: number;
+  avgUs: number;
+  p50Us: number;        // Перцентили — верхняя граница корзины гистограммы (степени двойки, мкс)
+  p95Us: number;
+  p99Us: number;
+  maxUs: number;
+}
+
+export interface MediaSessionDiagnostics {
+  serviceRunning: boolean;
+  uptimeMs?: number;
+  commands?: {
+    intent: LatencySummary;    // От вызова в мосте до конца обработки через Intent
+    direct: LatencySummary;    // То же через привязанный сервис
+    transport: LatencySummary; // Только play / pause
+    collapsed: number;         // Команды, поглощённые более новыми того же типа
+  };
+  starts?: {
+    cold: LatencySummary;
+    warm: LatencySummary;
+  };
+  notification?: {
+    posted: number;
+    postedPerMinute: number;
+    coalesced: number;
+    skipped: number;
+    build: LatencySummary;
+  };
+  session?: {
+    skippedMetadata: number;
+    skippedState: number;
+  };
+  artwork?: {
+    memoryHits: number;
+    diskHits: number;
+    revalidations: number;
+    misses: number;
+    failures: number;
+    localLoads: number;
+    memoryBytes: number;
+    fetch: LatencySummary;
+    decode: LatencySummary;
+    loadsStarted: number;
+    loadsDeduplicated: number;
+    loadsCancelled: number;
+    resultsDropped: number;
+    loadsRejected: number;
+    prefetched: number;
+    loadsInFlight: number;     // Загрузки обложек в пуле: в очереди и выполняющиеся
+  };
+  memory?: {
+    publishedArtworkBytes: number; // Обложка в текущих метаданных сессии
+    cacheBytes: number;
+    cacheMaxBytes: number;
+    thumbnailBytes: number;
+    poolBytes: number;             // Свободные буферы декодирования (inBitmap)
+    poolHits: number;
+    poolMisses: number;
+    trims: number;                 // onTrimMemory, после которых кэш обложек был урезан
+    lastTrimLevel: number;         // Последний уровень ComponentCallbacks2, -1 — не было
+  };
+  browse?: {
+    cacheHits: number;
+    cacheMisses: number;
+    cachedItems: number;
+    timeouts: number;
+  };
+  snapshot?: {
+    writes: number;
+    coalesced: number;
+  };
+  events: {
+    sent: number;
+    merged: number;
+    overwritten: number;
+    droppedWithoutListener: number;
+    pending: number;
+    lastSeq: number;
+  };
+}
+
+export interface TraceOptions {
+  capacity?: number; // Размер кольцевого буфера в отрезках (по умолчанию 4096, максимум 65536); старые затираются
+}
+
+export interface TraceEvent {
+  name: string;
+  cat: string;
+  ph: "X" | "b" | "e" | "M"; // X — вызов на потоке, b/e — ожидание между потоками, M — имя потока
+  ts?: number;          // мкс от загрузки устройства
+  dur?: number;         // мкс, для ph = "X"
+  id?: number;          // для ph = "b" / "e"
+  pid: number;
+  tid: number;
+  args?: { action?: string; name?: string };
+}
+
+export interface ChromeTrace {
+  traceEvents: TraceEvent[];
+  displayTimeUnit: "ms";
+  otherData: {
+    recording: boolean;
+    capacity: number;
+    written: number;
+    overwritten: number; // Отрезки, вытесненные из буфера
+  };
+}
+
+export interface MediaSessionState {
+  title?: string;
+  artist?: string;
+  album?: string;
+  cover?: string;
+  duration: number;
+  position: number;     // Текущая позиция с учётом прошедшего времени и скорости (мс)
+  state: "playing" | "paused" | "stopped";
+  playbackSpeed: number;
+  targetPage?: string;
+  activeQueueIndex?: number; // -1, если очередь не задана
+  nativeSource?: string;     // Источник нативного плеера, если он включён
+}
+
 export type MediaSessionEvent =
   | "play"
   | "pause"
@@ -40,16 +244,34 @@ export type MediaSessionEvent =
   | "next"
   | "previous"
   | "seekTo"
+  | "skipToQueueItem"
+  | "browseRequest"
+  | "playFromMediaId"
+  | "ended"
+  | "error"
+  | "progress"
+  | "diagnostics"
   | "openApp"
   | "notificationDismissed"
   | "appClosed";
 
 export interface MediaSessionEventPayload {
   event: MediaSessionEvent;
+  seq: number;          // Порядковый номер события; события, случившиеся без моста или до addListener, переигрываются после подписки
   position?: number;
   data?: {
     targetPage?: string;
-  };
+    index?: number; // next / previous / skipToQueueItem при заданной очереди
+    id?: string;
+    requestId?: number; // browseRequest: ответить через provideBrowseChildren
+    parentId?: string;
+    page?: number;
+    pageSize?: number;
+    mediaId?: string;   // playFromMediaId
+    src?: string;       // error: источник не удалось открыть
+    what?: number;      // error: код MediaPlayer
+    extra?: number;
+  } | MediaSessionDiagnostics; // diagnostics: тот же снимок, что возвращает getDiagnostics
 }
 
 export interface MediaSessionControlPlugin {
@@ -98,6 +320,91 @@ export interface MediaSessionControlPlugin {
    */
   updatePlaybackState(options: UpdatePlaybackStateOptions): Promise<void>;
 
+  /**
+   * Apply any subset of metadata and playback state in a single native update
+   */
+  applyState(options: ApplyStateOptions): Promise<void>;
+
+  /**
+   * Set the playback queue; neighbours of the active item are prefetched so next/previous switch instantly
+   */
+  setQueue(options: SetQueueOptions): Promise<void>;
+
+  /**
+   * Make a queue item active by index or id
+   */
+  setActiveQueueItem(options: SetActiveQueueItemOptions): Promise<void>;
+
+  /**
+   * Play a source with the native in-service player instead of the WebView; state and position then come from the player
+   */
+  setSource(options: SetSourceOptions): Promise<void>;
+
+  /**
+   * Release the native player and return to mirroring playback from the WebView
+   */
+  clearSource(): Promise<void>;
+
+  /**
+   * Enable or disable the browsable media library for Android Auto, Wear and other controllers
+   */
+  setBrowsingEnabled(options: BrowsingOptions): Promise<void>;
+
+  /**
+   * Answer a "browseRequest" event with one page of children
+   */
+  provideBrowseChildren(options: ProvideBrowseChildrenOptions): Promise<void>;
+
+  /**
+   * Drop cached browse pages and notify connected controllers that children changed
+   */
+  invalidateBrowseChildren(options?: InvalidateBrowseChildrenOptions): Promise<void>;
+
+  /**
+   * Get the current native session state with the position extrapolated from the playback clock
+   */
+  getState(): Promise<MediaSessionState>;
+
+  /**
+   * Start emitting "progress" events with the current position while playing
+   */
+  startProgressUpdates(options?: ProgressUpdatesOptions): Promise<void>;
+
+  /**
+   * Stop emitting "progress" events
+   */
+  stopProgressUpdates(): Promise<void>;
+
+  /**
+   * Get hot-path counters and latency histograms collected by the native side
+   */
+  getDiagnostics(): Promise<MediaSessionDiagnostics>;
+
+  /**
+   * Start emitting periodic "diagnostics" events with the same snapshot as getDiagnostics
+   */
+  startDiagnostics(options?: DiagnosticsOptions): Promise<void>;
+
+  /**
+   * Stop emitting "diagnostics" events
+   */
+  stopDiagnostics(): Promise<void>;
+
+  /**
+   * Start recording bridge, service, artwork and session callback spans into a native ring buffer (also emitted as android.os.Trace sections)
+   */
+  startTrace(options?: TraceOptions): Promise<void>;
+
+  /**
+   * Stop recording spans; the buffer is kept for dumpTrace
+   */
+  stopTrace(): Promise<void>;
+
+  /**
+   * Return the trace buffer in Chrome trace-event format; save it with JSON.stringify and open in Perfetto UI
+   */
+  dumpTrace(): Promise<ChromeTrace>;
+
   /**
    * Add listener for media session events
    */
@@ -1,6 +1,6 @@
 import { WebPlugin } from '@capacitor/core';
 
-import type { MediaSessionControlPlugin } from './definitions';
+import type { ChromeTrace, MediaSessionControlPlugin, MediaSessionDiagnostics, MediaSessionState } from './definitions';
 
 export class MediaSessionControlWeb extends WebPlugin implements MediaSessionControlPlugin {
   async init(): Promise<void> {
@@ -38,4 +38,82 @@ export class MediaSessionControlWeb extends WebPlugin implements MediaSessionCon
   async updatePlaybackState(): Promise<void> {
     console.log('MediaSessionControl not supported on web');
   }
+
+  async applyState(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async setQueue(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async setActiveQueueItem(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async setSource(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async clearSource(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async setBrowsingEnabled(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async provideBrowseChildren(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async invalidateBrowseChildren(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async getState(): Promise<MediaSessionState> {
+    console.log('MediaSessionControl not supported on web');
+    return { state: 'stopped', position: 0, duration: 0, playbackSpeed: 1 };
+  }
+
+  async startProgressUpdates(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async stopProgressUpdates(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async getDiagnostics(): Promise<MediaSessionDiagnostics> {
+    console.log('MediaSessionControl not supported on web');
+    return {
+      serviceRunning: false,
+      events: { sent: 0, merged: 0, overwritten: 0, droppedWithoutListener: 0, pending: 0, lastSeq: 0 },
+    };
+  }
+
+  async startDiagnostics(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async stopDiagnostics(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async startTrace(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async stopTrace(): Promise<void> {
+    console.log('MediaSessionControl not supported on web');
+  }
+
+  async dumpTrace(): Promise<ChromeTrace> {
+    console.log('MediaSessionControl not supported on web');
+    return {
+      traceEvents: [],
+      displayTimeUnit: 'ms',
+      otherData: { recording: false, capacity: 0, written: 0, overwritten: 0 },
+    };
+  }
 }